@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.io.*;
+
+/**
+ * Times ways of grouping words into anagrams over a large corpus: sorting
+ * each word into a String key in a HashMap, as Anagrams2 used to, then
+ * keying on the letter signature, then the signature grouped in parallel.
+ * The corpus is the dictionary repeated with the letters of each copy of a
+ * word shuffled, so it has as many anagrams as words.
+ *
+ * JMH isn't available here, so each way is run a few times to warm up
+ * before it is timed, as ChecksumBench does.
+ *     java AnagramBench <dictionary> [words] [rounds]
+ */
+public class AnagramBench {
+
+    public static void main(String[] args) throws IOException {
+        List<String> dictionary = Anagrams2.readWords(new File(args[0]));
+        int n = (args.length > 1) ? Integer.parseInt(args[1]) : 4000000;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+        if (rounds < 1) {
+            System.err.println("usage: java AnagramBench <dictionary> [words] [rounds >= 1]");
+            System.exit(-1);
+        }
+
+        Random random = new Random(42);
+        List<String> words = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            char[] a = dictionary.get(i % dictionary.size()).toCharArray();
+            for (int j = a.length - 1; j > 0; j--) {
+                int r = random.nextInt(j + 1);
+                char t = a[j]; a[j] = a[r]; a[r] = t;
+            }
+            words.add(new String(a));
+        }
+        System.out.println(n + " words");
+
+        int expected = sorted(words);
+        time("sorted String keys", words, rounds, 0, expected);
+        time("signature keys", words, rounds, 1, expected);
+        time("parallel signature keys", words, rounds, 2, expected);
+    }
+
+    static int sorted(List<String> words) {
+        Map<String, List<String>> m = new HashMap<String, List<String>>();
+        for (String word : words) {
+            String alpha = Anagrams2.alphabetize(word);
+            List<String> l = m.get(alpha);
+            if (l == null)
+                m.put(alpha, l = new ArrayList<String>());
+            l.add(word);
+        }
+        return m.size();
+    }
+
+    static int signatures(List<String> words) {
+        Map<Object, List<String>> m = new HashMap<Object, List<String>>();
+        for (String word : words) {
+            Object key = Anagrams2.key(word);
+            List<String> l = m.get(key);
+            if (l == null)
+                m.put(key, l = new ArrayList<String>());
+            l.add(word);
+        }
+        return m.size();
+    }
+
+    static int parallel(List<String> words) {
+        ConcurrentMap<Object, List<Integer>> m = Anagrams2.group(words);
+        return m.size();
+    }
+
+    static void time(String name, List<String> words, int rounds, int way, int expected) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds + 2; i++) {
+            long start = System.nanoTime();
+            int groups = (way == 0) ? sorted(words)
+                       : (way == 1) ? signatures(words)
+                       : parallel(words);
+            long elapsed = System.nanoTime() - start;
+            if (groups != expected)
+                throw new AssertionError(name + ": " + groups + " groups, expected " + expected);
+            if (i >= 2)
+                best = Math.min(best, elapsed);
+        }
+        System.out.format("%-24s %8.1f ms %10.0f words/s%n", name, best / 1e6,
+                          words.size() / (best / 1e9));
+    }
+}
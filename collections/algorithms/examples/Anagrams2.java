@@ -30,49 +30,133 @@
  */ 
 
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.io.*;
 
 public class Anagrams2 {
     public static void main(String[] args) {
         int minGroupSize = Integer.parseInt(args[1]);
+        int k = (args.length > 2) ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
 
-        // Read words from file and put into simulated multimap
-        Map<String, List<String>> m
-	    = new HashMap<String, List<String>>();
+        // Read words from file and group their positions by their letters,
+        // in parallel
+        List<String> words = null;
         try {
-            Scanner s = new Scanner(new File(args[0]));
-            while (s.hasNext()) {
-		String word = s.next();
-                String alpha = alphabetize(word);
-                List<String> l = m.get(alpha);
-                if (l == null)
-                    m.put(alpha, l=new ArrayList<String>());
-                l.add(word);
-            }
+            words = readWords(new File(args[0]));
         } catch (IOException e) {
             System.err.println(e);
             System.exit(1);
         }
+        ConcurrentMap<Object, List<Integer>> m = group(words);
 
-        // Make a List of all permutation groups above size threshold
-        List<List<String>> winners = new ArrayList<List<String>>();
-        for (List<String> l : m.values())
-            if (l.size() >= minGroupSize)
-                winners.add(l);
+        // Print the k largest permutation groups above size threshold, each
+        // in the order of the file
+        for (List<Integer> l : largest(m.values(), minGroupSize, k))
+            System.out.println(l.size() + ": " + inFileOrder(l, words));
+    }
 
-        // Sort permutation groups according to size
-        Collections.sort(winners, new Comparator<List<String>>() {
-            public int compare(List<String> o1, List<String> o2) {
-                return o2.size() - o1.size();
-            }});
+    static ConcurrentMap<Object, List<Integer>> group(final List<String> words) {
+        return IntStream.range(0, words.size()).boxed().parallel()
+            .collect(Collectors.groupingByConcurrent(i -> key(words.get(i))));
+    }
+
+    // Returns the words at the given positions, in the order of the file.
+    static List<String> inFileOrder(List<Integer> positions, List<String> words) {
+        Collections.sort(positions);
+        List<String> l = new ArrayList<String>(positions.size());
+        for (int i : positions)
+            l.add(words.get(i));
+        return l;
+    }
 
-        // Print permutation groups
-        for (List<String> l : winners ) {
-            System.out.println(l.size() + ": " + l);
+    static final Comparator<List<?>> BY_SIZE = new Comparator<List<?>>() {
+        public int compare(List<?> o1, List<?> o2) {
+            return Integer.compare(o1.size(), o2.size());
+        }};
+
+    /*
+     * Returns the k largest groups of at least minGroupSize words, largest
+     * first. Only k groups are kept, in a heap with the smallest on top,
+     * rather than sorting them all.
+     */
+    static <T> List<List<T>> largest(Collection<List<T>> groups,
+                                     int minGroupSize, int k) {
+        PriorityQueue<List<T>> heap = new PriorityQueue<List<T>>(BY_SIZE);
+        for (List<T> l : groups) {
+            if (l.size() < minGroupSize || k <= 0)
+                continue;
+            if (heap.size() < k) {
+                heap.add(l);
+            } else if (l.size() > heap.peek().size()) {
+                heap.poll();
+                heap.add(l);
+            }
+        }
+        List<List<T>> winners = new ArrayList<List<T>>(heap);
+        Collections.sort(winners, Collections.reverseOrder(BY_SIZE));
+        return winners;
+    }
+
+    /*
+     * Returns the letters of a word of up to 12 letters a-z in order, five
+     * bits each, or -1 for any other word. The letters are counted rather
+     * than sorted, four bits a letter in two longs, and only the letters that
+     * occur are visited, so nothing is allocated.
+     */
+    static long signature(String word) {
+        int n = word.length();
+        if (n > 12)
+            return -1;
+        long lo = 0, hi = 0;
+        int letters = 0;
+        for (int i = 0; i < n; i++) {
+            int c = word.charAt(i) - 'a';
+            if (c < 0 || c >= 26)
+                return -1;
+            letters |= 1 << c;
+            if (c < 16)
+                lo += 1L << (c * 4);
+            else
+                hi += 1L << ((c - 16) * 4);
+        }
+        long sig = 0;
+        for (; letters != 0; letters &= letters - 1) {
+            int c = Integer.numberOfTrailingZeros(letters);
+            long count = (c < 16 ? lo >>> (c * 4) : hi >>> ((c - 16) * 4)) & 0xf;
+            for (; count > 0; count--)
+                sig = (sig << 5) | (c + 1);
+        }
+        return sig;
+    }
+
+    // Words that share a key are anagrams of each other.
+    static Object key(String word) {
+        long sig = signature(word);
+        return (sig >= 0) ? (Object)sig : alphabetize(word);
+    }
+
+    static List<String> readWords(File file) throws IOException {
+        List<String> words = new ArrayList<String>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                int i = 0, n = line.length();
+                while (i < n) {
+                    while (i < n && Character.isWhitespace(line.charAt(i)))
+                        i++;
+                    int start = i;
+                    while (i < n && !Character.isWhitespace(line.charAt(i)))
+                        i++;
+                    if (i > start)
+                        words.add(line.substring(start, i));
+                }
+            }
         }
+        return words;
     }
 
-    private static String alphabetize(String s) {
+    static String alphabetize(String s) {
 	char[] a = s.toCharArray();
 	Arrays.sort(a);
 	return new String(a);
@@ -31,15 +31,17 @@
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 import javax.imageio.ImageIO;
 
 /**
  * ForkBlur implements a simple horizontal image blur. It averages pixels in the
  * source array and writes them to a destination array. The sThreshold value
  * determines whether the blurring will be performed directly or split into two
- * tasks.
+ * tasks, unless a SplitPolicy is given to decide instead.
  *
  * This is not the recommended way to blur images; it is only intended to
  * illustrate the use of the Fork/Join framework.
@@ -51,12 +53,19 @@ public class ForkBlur extends RecursiveAction {
     private int mLength;
     private int[] mDestination;
     private int mBlurWidth = 15; // Processing window size, should be odd.
+    private SplitPolicy mPolicy;
 
     public ForkBlur(int[] src, int start, int length, int[] dst) {
+        this(src, start, length, dst, SplitPolicy.fixed(sThreshold));
+    }
+
+    public ForkBlur(int[] src, int start, int length, int[] dst,
+            SplitPolicy policy) {
         mSource = src;
         mStart = start;
         mLength = length;
         mDestination = dst;
+        mPolicy = policy;
     }
 
     // Average pixels from source, write results into destination.
@@ -85,27 +94,79 @@ public class ForkBlur extends RecursiveAction {
 
     @Override
     protected void compute() {
-        if (mLength < sThreshold) {
+        if (!mPolicy.shouldSplit(mLength)) {
             computeDirectly();
             return;
         }
 
         int split = mLength / 2;
 
-        invokeAll(new ForkBlur(mSource, mStart, split, mDestination),
+        invokeAll(new ForkBlur(mSource, mStart, split, mDestination, mPolicy),
                 new ForkBlur(mSource, mStart + split, mLength - split, 
-                mDestination));
+                mDestination, mPolicy));
     }
 
     // Plumbing follows.
+    //
+    // Usage: java ForkBlur [-separable | -bench | -stream] [-adaptive]
+    //                      [-threshold n] [-strip n] [image]
+    //
+    //   -separable    blur with the two-pass SeparableBlur engine
+    //   -bench        time both engines for a range of thresholds
+    //   -stream       blur strip by strip with StreamingBlur into a TIFF file
+    //   -adaptive     let SplitPolicy.adaptive() pick the leaf size
+    //   -threshold n  use n, at least 2, as sThreshold
+    //   -strip n      use strips of n rows with -stream
     public static void main(String[] args) throws Exception {
+        String mode = null;
+        boolean adaptive = false;
+        int stripHeight = 256;
         String srcName = "red-tulips.jpg";
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-separable") || arg.equals("-bench")
+                    || arg.equals("-stream")) {
+                mode = arg;
+            } else if (arg.equals("-adaptive")) {
+                adaptive = true;
+            } else if (arg.equals("-threshold") && i + 1 < args.length
+                    && Integer.parseInt(args[i + 1]) >= 2) {
+                sThreshold = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-strip") && i + 1 < args.length) {
+                stripHeight = Integer.parseInt(args[++i]);
+            } else if (arg.startsWith("-")) {
+                System.err.println("usage: java ForkBlur"
+                        + " [-separable | -bench | -stream] [-adaptive]"
+                        + " [-threshold n] [-strip n] [image]");
+                System.exit(-1);
+            } else {
+                srcName = arg;
+            }
+        }
+
         File srcFile = new File(srcName);
+
+        if ("-stream".equals(mode)) {
+            // The image is never loaded whole, so it may be larger than
+            // the heap.
+            System.out.println("Source image: " + srcName);
+            String dstName = "blurred-tulips.tif";
+            blurStreaming(srcFile, new File(dstName), stripHeight);
+            System.out.println("Output image: " + dstName);
+            return;
+        }
+
         BufferedImage image = ImageIO.read(srcFile);
         
         System.out.println("Source image: " + srcName);
-        
-        BufferedImage blurredImage = blur(image);
+
+        if ("-bench".equals(mode)) {
+            benchmark(image);
+            return;
+        }
+
+        BufferedImage blurredImage = "-separable".equals(mode)
+                ? blurSeparable(image) : blur(image, adaptive);
         
         String dstName = "blurred-tulips.jpg";
         File dstFile = new File(dstName);
@@ -116,6 +177,10 @@ public class ForkBlur extends RecursiveAction {
     }
 
     public static BufferedImage blur(BufferedImage srcImage) {
+        return blur(srcImage, false);
+    }
+
+    public static BufferedImage blur(BufferedImage srcImage, boolean adaptive) {
         int w = srcImage.getWidth();
         int h = srcImage.getHeight();
 
@@ -123,23 +188,29 @@ public class ForkBlur extends RecursiveAction {
         int[] dst = new int[src.length];
 
         System.out.println("Array size is " + src.length);
-        System.out.println("Threshold is " + sThreshold);
 
         int processors = Runtime.getRuntime().availableProcessors();
         System.out.println(Integer.toString(processors) + " processor"
                 + (processors != 1 ? "s are " : " is ")
                 + "available");
 
-        ForkBlur fb = new ForkBlur(src, 0, src.length, dst);
-
         ForkJoinPool pool = new ForkJoinPool();
 
+        SplitPolicy policy = adaptive
+                ? adaptivePolicy(pool, src, dst)
+                : SplitPolicy.fixed(sThreshold);
+        System.out.println("Threshold is " + policy.leafSize());
+
+        ForkBlur fb = new ForkBlur(src, 0, src.length, dst, policy);
+        policy.reset(pool);
+
         long startTime = System.currentTimeMillis();
         pool.invoke(fb);
         long endTime = System.currentTimeMillis();
 
         System.out.println("Image blur took " + (endTime - startTime) + 
                 " milliseconds.");
+        System.out.println(policy.report(pool));
 
         BufferedImage dstImage =
                 new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
@@ -147,4 +218,121 @@ public class ForkBlur extends RecursiveAction {
 
         return dstImage;
     }
+
+    // Returns an adaptive policy calibrated by blurring the start of src.
+    static SplitPolicy adaptivePolicy(ForkJoinPool pool, final int[] src,
+            final int[] dst) {
+        return SplitPolicy.adaptive(pool, src.length, new IntConsumer() {
+            public void accept(int n) {
+                new ForkBlur(src, 0, n, dst).computeDirectly();
+            }
+        });
+    }
+
+    public static BufferedImage blurSeparable(BufferedImage srcImage) {
+        int w = srcImage.getWidth();
+        int h = srcImage.getHeight();
+
+        int[] src = srcImage.getRGB(0, 0, w, h, null, 0, w);
+        int[] dst = new int[src.length];
+
+        System.out.println("Image size is " + w + "x" + h);
+        System.out.println("Threshold is " + sThreshold);
+
+        SeparableBlur sb = new SeparableBlur(w, h, 15, sThreshold);
+
+        ForkJoinPool pool = new ForkJoinPool();
+
+        long startTime = System.currentTimeMillis();
+        sb.blur(src, dst, pool);
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Separable image blur took " + (endTime - startTime) +
+                " milliseconds.");
+
+        BufferedImage dstImage =
+                new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        dstImage.setRGB(0, 0, w, h, dst, 0, w);
+
+        return dstImage;
+    }
+
+    public static void blurStreaming(File srcFile, File dstFile,
+            int stripHeight) throws IOException {
+        System.out.println("Strip height is " + stripHeight);
+        System.out.println("Threshold is " + sThreshold);
+
+        StreamingBlur sb = new StreamingBlur(15, stripHeight, sThreshold);
+
+        ForkJoinPool pool = new ForkJoinPool();
+
+        long startTime = System.currentTimeMillis();
+        int strips = sb.blur(srcFile, dstFile, "tiff", pool);
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Streaming image blur of " + strips + " strips took "
+                + (endTime - startTime) + " milliseconds.");
+    }
+
+    // Times the flat and the separable engines on the same pixels for a
+    // range of thresholds and prints the throughput of each.
+    static void benchmark(BufferedImage srcImage) {
+        int[] thresholds = { 1000, 5000, 10000, 50000, 100000, 500000 };
+        int rounds = 5;
+
+        int w = srcImage.getWidth();
+        int h = srcImage.getHeight();
+        int[] src = srcImage.getRGB(0, 0, w, h, null, 0, w);
+        int[] dst = new int[src.length];
+
+        ForkJoinPool pool = new ForkJoinPool();
+        System.out.println("Image size is " + w + "x" + h + ", "
+                + pool.getParallelism() + " workers");
+        System.out.format("%10s %18s %18s%n",
+                "threshold", "flat Mpixel/s", "separable Mpixel/s");
+
+        int saved = sThreshold;
+        try {
+            for (int threshold : thresholds) {
+                sThreshold = threshold;
+                SeparableBlur sb = new SeparableBlur(w, h, 15, threshold);
+
+                long flat = Long.MAX_VALUE;
+                long separable = Long.MAX_VALUE;
+                // The first round warms up the JIT and is not counted.
+                for (int round = 0; round <= rounds; round++) {
+                    long start = System.nanoTime();
+                    pool.invoke(new ForkBlur(src, 0, src.length, dst));
+                    long middle = System.nanoTime();
+                    sb.blur(src, dst, pool);
+                    long end = System.nanoTime();
+                    if (round > 0) {
+                        flat = Math.min(flat, middle - start);
+                        separable = Math.min(separable, end - middle);
+                    }
+                }
+                System.out.format("%10d %18.1f %18.1f%n", threshold,
+                        src.length * 1e3 / flat, src.length * 1e3 / separable);
+            }
+
+            SplitPolicy policy = adaptivePolicy(pool, src, dst);
+            long flat = Long.MAX_VALUE;
+            for (int round = 0; round <= rounds; round++) {
+                policy.reset(pool);
+                long start = System.nanoTime();
+                pool.invoke(new ForkBlur(src, 0, src.length, dst, policy));
+                long end = System.nanoTime();
+                if (round > 0) {
+                    flat = Math.min(flat, end - start);
+                }
+            }
+            System.out.format("%10s %18.1f %18s%n", "adaptive",
+                    src.length * 1e3 / flat, "-");
+            // The counters were reset each round, so this is the last one.
+            System.out.println(policy.report(pool));
+        } finally {
+            sThreshold = saved;
+            pool.shutdown();
+        }
+    }
 }
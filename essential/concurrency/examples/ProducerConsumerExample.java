@@ -29,10 +29,87 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */ 
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class ProducerConsumerExample {
-    public static void main(String[] args) {
+    // Usage: java ProducerConsumerExample [-throughput [messages]]
+    //
+    //   -throughput  pass messages from a producer thread to a consumer
+    //                thread as fast as possible through Drop and through
+    //                each kind of RingDrop, and print the message rates.
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("-throughput")) {
+            int messages = args.length > 1 ? Integer.parseInt(args[1])
+                                           : 1000000;
+            throughput(messages);
+            return;
+        }
+
         Drop drop = new Drop();
         (new Thread(new Producer(drop))).start();
         (new Thread(new Consumer(drop))).start();
     }
+
+    static void throughput(int messages) throws InterruptedException {
+        int capacity = 1024;
+        System.out.format("%-30s %15s%n", "drop", "messages/s");
+        measure("Drop", new Drop(), messages, false);
+        for (RingDrop.WaitStrategy wait : RingDrop.WaitStrategy.values()) {
+            measure("RingDrop.spsc " + wait,
+                    RingDrop.spsc(capacity, wait), messages, false);
+            measure("RingDrop.spsc " + wait + " batch",
+                    RingDrop.spsc(capacity, wait), messages, true);
+            measure("RingDrop.mpmc " + wait,
+                    RingDrop.mpmc(capacity, wait), messages, false);
+        }
+    }
+
+    // Times the transfer of messages strings through drop. If batch is true,
+    // drop must be a RingDrop and putBatch and drainTo are used.
+    static void measure(String name, final Drop drop, final int messages,
+            final boolean batch) throws InterruptedException {
+        final String[] batchOf = new String[64];
+        for (int i = 0; i < batchOf.length; i++) {
+            batchOf[i] = "Mares eat oats";
+        }
+
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                if (batch) {
+                    RingDrop ring = (RingDrop) drop;
+                    for (int sent = 0; sent < messages; sent += batchOf.length) {
+                        ring.putBatch(batchOf, 0,
+                                Math.min(batchOf.length, messages - sent));
+                    }
+                } else {
+                    for (int i = 0; i < messages; i++) {
+                        drop.put(batchOf[0]);
+                    }
+                }
+                drop.put("DONE");
+            }
+        });
+
+        long start = System.nanoTime();
+        producer.start();
+        if (batch) {
+            RingDrop ring = (RingDrop) drop;
+            List<String> taken = new ArrayList<String>(ring.capacity());
+            for (boolean done = false; !done; ) {
+                if (ring.drainTo(taken, ring.capacity()) == 0) {
+                    taken.add(ring.take());
+                }
+                done = taken.get(taken.size() - 1).equals("DONE");
+                taken.clear();
+            }
+        } else {
+            while (!drop.take().equals("DONE"))
+                ;
+        }
+        long end = System.nanoTime();
+        producer.join();
+
+        System.out.format("%-30s %,15.0f%n", name, messages * 1e9 / (end - start));
+    }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RingDrop is a Drop that holds up to a fixed number of messages in a ring
+ * buffer instead of a single slot, and uses no locks. A producer only waits
+ * when the ring is full and a consumer only waits when it is empty; how they
+ * wait is chosen by a WaitStrategy.
+ *
+ * Use spsc() when there is exactly one producer thread and one consumer
+ * thread, and mpmc() when there may be several of either. Messages must not
+ * be null.
+ */
+public abstract class RingDrop extends Drop {
+
+    /** How a thread waits for the ring to become non-full or non-empty. */
+    public enum WaitStrategy {
+        /** Spin on the CPU. Lowest latency, but burns a core per waiter. */
+        BUSY_SPIN {
+            void idle(int attempt) {
+                Thread.onSpinWait();
+            }
+        },
+        /** Spin briefly, then give up the CPU to other threads. */
+        YIELD {
+            void idle(int attempt) {
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        },
+        /** Spin briefly, then sleep for short intervals. Uses the least CPU. */
+        PARK {
+            void idle(int attempt) {
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+        };
+
+        private static final int SPINS = 100;
+        private static final long PARK_NANOS = 50000;
+
+        // Called with attempt = 0, 1, 2, ... while a thread keeps waiting.
+        abstract void idle(int attempt);
+    }
+
+    protected final String[] mBuffer;
+    protected final int mMask;
+    protected final WaitStrategy mWait;
+    // Total number of messages taken and put. Each is kept on its own cache
+    // line so that producers and consumers do not slow each other down.
+    protected final Sequence mHead = new Sequence();
+    protected final Sequence mTail = new Sequence();
+
+    RingDrop(int capacity, WaitStrategy wait) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(
+                    "capacity must be a power of two: " + capacity);
+        }
+        mBuffer = new String[capacity];
+        mMask = capacity - 1;
+        mWait = wait;
+    }
+
+    /** Returns a RingDrop for one producer thread and one consumer thread. */
+    public static RingDrop spsc(int capacity, WaitStrategy wait) {
+        return new SingleProducerSingleConsumer(capacity, wait);
+    }
+
+    /** Returns a RingDrop for any number of producers and consumers. */
+    public static RingDrop mpmc(int capacity, WaitStrategy wait) {
+        return new MultiProducerMultiConsumer(capacity, wait);
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * Puts len messages from messages, starting at offset, waiting for room
+     * as needed.
+     */
+    public void putBatch(String[] messages, int offset, int len) {
+        for (int i = offset; i < offset + len; i++) {
+            put(messages[i]);
+        }
+    }
+
+    /**
+     * Takes up to max messages that are available now and adds them to c,
+     * without waiting. Returns the number of messages taken.
+     */
+    public int drainTo(Collection<? super String> c, int max) {
+        int n = 0;
+        String message;
+        while (n < max && (message = poll()) != null) {
+            c.add(message);
+            n++;
+        }
+        return n;
+    }
+
+    /** Takes a message if one is available, or returns null. */
+    public abstract String poll();
+
+    // A long counter padded to fill a cache line on either side. The padding
+    // fields are in superclasses so that the JVM cannot reorder them.
+    static class LeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    static class Value extends LeftPadding {
+        volatile long value;
+    }
+
+    static class Sequence extends Value {
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        private static final AtomicLongFieldUpdater<Value> UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        long get() {
+            return value;
+        }
+
+        // Publishes v without waiting for earlier writes to become visible
+        // to this thread; readers that see v also see the writes before it.
+        void lazySet(long v) {
+            UPDATER.lazySet(this, v);
+        }
+
+        boolean compareAndSet(long expect, long update) {
+            return UPDATER.compareAndSet(this, expect, update);
+        }
+    }
+
+    // A plain long that only one thread uses, padded like Sequence so that
+    // writing it does not disturb the lines the other thread reads.
+    static class PlainValue extends LeftPadding {
+        long value;
+    }
+
+    static class LocalSequence extends PlainValue {
+        long p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    // Only the producer writes mTail and only the consumer writes mHead, so
+    // plain ordered writes are enough and no compare-and-set is needed.
+    private static class SingleProducerSingleConsumer extends RingDrop {
+        // The producer's last view of mHead and the consumer's last view of
+        // mTail, so that neither reads the other's counter every time. Each
+        // is on a cache line of its own, as the counters are.
+        private final LocalSequence mHeadCache = new LocalSequence();
+        private final LocalSequence mTailCache = new LocalSequence();
+
+        SingleProducerSingleConsumer(int capacity, WaitStrategy wait) {
+            super(capacity, wait);
+        }
+
+        @Override
+        public void put(String message) {
+            long tail = mTail.get();
+            awaitRoom(tail, 1);
+            mBuffer[(int) tail & mMask] = message;
+            mTail.lazySet(tail + 1);
+        }
+
+        @Override
+        public void putBatch(String[] messages, int offset, int len) {
+            long tail = mTail.get();
+            while (len > 0) {
+                // Fill as much of the ring as is free, then publish it all.
+                int n = (int) Math.min(awaitRoom(tail, 1), len);
+                for (int i = 0; i < n; i++) {
+                    mBuffer[(int) (tail + i) & mMask] = messages[offset + i];
+                }
+                tail += n;
+                offset += n;
+                len -= n;
+                mTail.lazySet(tail);
+            }
+        }
+
+        // Waits until at least min slots after tail are free and returns
+        // the number of free slots.
+        private long awaitRoom(long tail, int min) {
+            int attempt = 0;
+            long free = mBuffer.length - (tail - mHeadCache.value);
+            while (free < min) {
+                mHeadCache.value = mHead.get();
+                free = mBuffer.length - (tail - mHeadCache.value);
+                if (free < min) {
+                    mWait.idle(attempt++);
+                }
+            }
+            return free;
+        }
+
+        @Override
+        public String take() {
+            long head = mHead.get();
+            int attempt = 0;
+            while (head >= mTailCache.value) {
+                mTailCache.value = mTail.get();
+                if (head >= mTailCache.value) {
+                    mWait.idle(attempt++);
+                }
+            }
+            return takeAt(head);
+        }
+
+        @Override
+        public String poll() {
+            long head = mHead.get();
+            if (head >= mTailCache.value) {
+                mTailCache.value = mTail.get();
+                if (head >= mTailCache.value) {
+                    return null;
+                }
+            }
+            return takeAt(head);
+        }
+
+        @Override
+        public int drainTo(Collection<? super String> c, int max) {
+            long head = mHead.get();
+            mTailCache.value = mTail.get();
+            int n = (int) Math.min(mTailCache.value - head, max);
+            for (int i = 0; i < n; i++) {
+                int index = (int) (head + i) & mMask;
+                c.add(mBuffer[index]);
+                mBuffer[index] = null;
+            }
+            mHead.lazySet(head + n);
+            return n;
+        }
+
+        private String takeAt(long head) {
+            int index = (int) head & mMask;
+            String message = mBuffer[index];
+            mBuffer[index] = null;
+            mHead.lazySet(head + 1);
+            return message;
+        }
+    }
+
+    // Each slot carries its own sequence number, which says whether the
+    // slot is ready to be written for position p (sequence == p) or ready
+    // to be read for position p (sequence == p + 1). Producers and consumers
+    // claim positions by compare-and-set on mTail and mHead.
+    private static class MultiProducerMultiConsumer extends RingDrop {
+        private final AtomicLongArray mSequences;
+
+        MultiProducerMultiConsumer(int capacity, WaitStrategy wait) {
+            super(capacity, wait);
+            mSequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                mSequences.set(i, i);
+            }
+        }
+
+        @Override
+        public void put(String message) {
+            int attempt = 0;
+            long tail = mTail.get();
+            for (;;) {
+                int index = (int) tail & mMask;
+                long difference = mSequences.get(index) - tail;
+                if (difference == 0) {
+                    if (mTail.compareAndSet(tail, tail + 1)) {
+                        mBuffer[index] = message;
+                        mSequences.lazySet(index, tail + 1);
+                        return;
+                    }
+                } else if (difference < 0) {
+                    // The ring is full.
+                    mWait.idle(attempt++);
+                }
+                tail = mTail.get();
+            }
+        }
+
+        @Override
+        public String take() {
+            int attempt = 0;
+            String message;
+            while ((message = poll()) == null) {
+                mWait.idle(attempt++);
+            }
+            return message;
+        }
+
+        @Override
+        public String poll() {
+            long head = mHead.get();
+            for (;;) {
+                int index = (int) head & mMask;
+                long difference = mSequences.get(index) - (head + 1);
+                if (difference == 0) {
+                    if (mHead.compareAndSet(head, head + 1)) {
+                        String message = mBuffer[index];
+                        mBuffer[index] = null;
+                        mSequences.lazySet(index, head + mBuffer.length);
+                        return message;
+                    }
+                } else if (difference < 0) {
+                    // The ring is empty.
+                    return null;
+                }
+                head = mHead.get();
+            }
+        }
+    }
+}
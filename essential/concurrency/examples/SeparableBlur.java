@@ -0,0 +1,211 @@
+/*
+* Copyright (c) 2010, 2013, Oracle and/or its affiliates. All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions
+* are met:
+*
+*   - Redistributions of source code must retain the above copyright
+*     notice, this list of conditions and the following disclaimer.
+*
+*   - Redistributions in binary form must reproduce the above copyright
+*     notice, this list of conditions and the following disclaimer in the
+*     documentation and/or other materials provided with the distribution.
+*
+*   - Neither the name of Oracle or the names of its
+*     contributors may be used to endorse or promote products derived
+*     from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+* IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+* THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+* PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+* EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+* PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+* NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SeparableBlur implements a true two-dimensional box blur on an image held
+ * as a row-major array of ARGB pixels. Because a box kernel is separable, the
+ * blur is done as a horizontal pass followed by a vertical pass. Each pass
+ * keeps a running sum of the pixels inside the window, so the cost per pixel
+ * does not depend on the blur width.
+ *
+ * The horizontal pass is split into bands of rows and the vertical pass into
+ * bands of columns. Each band is small enough to stay in cache while it is
+ * being processed; the threshold gives the band size in pixels.
+ */
+public class SeparableBlur {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBlurWidth; // Processing window size, should be odd.
+    private final int mThreshold;
+    // mDivide[sum] == sum / mBlurWidth, so no division is done per pixel.
+    private final int[] mDivide;
+
+    public SeparableBlur(int width, int height, int blurWidth, int threshold) {
+        if (blurWidth < 1 || blurWidth % 2 == 0) {
+            throw new IllegalArgumentException("blur width must be odd: "
+                    + blurWidth);
+        }
+        mWidth = width;
+        mHeight = height;
+        mBlurWidth = blurWidth;
+        mThreshold = Math.max(threshold, 1);
+        mDivide = new int[256 * blurWidth];
+        for (int i = 0; i < mDivide.length; i++) {
+            mDivide[i] = i / blurWidth;
+        }
+    }
+
+    /**
+     * Blurs src into dst. Both arrays hold width * height pixels; src is
+     * left unchanged.
+     */
+    public void blur(int[] src, int[] dst, ForkJoinPool pool) {
+        int[] tmp = new int[src.length];
+        pool.invoke(new HorizontalPass(src, tmp, 0, mHeight));
+        pool.invoke(new VerticalPass(tmp, dst, 0, mWidth));
+    }
+
+    // Blurs each row in [mFirstRow, mLastRow) along x.
+    private class HorizontalPass extends RecursiveAction {
+        private final int[] mSource;
+        private final int[] mDestination;
+        private final int mFirstRow;
+        private final int mLastRow;
+
+        HorizontalPass(int[] src, int[] dst, int firstRow, int lastRow) {
+            mSource = src;
+            mDestination = dst;
+            mFirstRow = firstRow;
+            mLastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = mLastRow - mFirstRow;
+            if (rows < 2 || (long) rows * mWidth <= mThreshold) {
+                computeDirectly();
+                return;
+            }
+
+            int split = mFirstRow + rows / 2;
+            invokeAll(new HorizontalPass(mSource, mDestination, mFirstRow, split),
+                    new HorizontalPass(mSource, mDestination, split, mLastRow));
+        }
+
+        private void computeDirectly() {
+            int sidePixels = (mBlurWidth - 1) / 2;
+            int last = mWidth - 1;
+            for (int y = mFirstRow; y < mLastRow; y++) {
+                int row = y * mWidth;
+
+                // Prime the window for x == 0, clamping at the left edge.
+                int rt = 0, gt = 0, bt = 0;
+                for (int mi = -sidePixels; mi <= sidePixels; mi++) {
+                    int pixel = mSource[row + Math.min(Math.max(mi, 0), last)];
+                    rt += (pixel >> 16) & 0xff;
+                    gt += (pixel >> 8) & 0xff;
+                    bt += pixel & 0xff;
+                }
+
+                for (int x = 0; x < mWidth; x++) {
+                    mDestination[row + x] = 0xff000000
+                            | (mDivide[rt] << 16)
+                            | (mDivide[gt] << 8)
+                            | mDivide[bt];
+
+                    // Slide the window one pixel to the right.
+                    int out = mSource[row + Math.max(x - sidePixels, 0)];
+                    int in = mSource[row + Math.min(x + sidePixels + 1, last)];
+                    rt += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                    gt += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                    bt += (in & 0xff) - (out & 0xff);
+                }
+            }
+        }
+    }
+
+    // Blurs each column in [mFirstColumn, mLastColumn) along y. The columns
+    // of a band are walked together, row by row, so memory is read in order.
+    private class VerticalPass extends RecursiveAction {
+        // A band narrower than a cache line would read memory with a stride.
+        private static final int MIN_COLUMNS = 16;
+
+        private final int[] mSource;
+        private final int[] mDestination;
+        private final int mFirstColumn;
+        private final int mLastColumn;
+
+        VerticalPass(int[] src, int[] dst, int firstColumn, int lastColumn) {
+            mSource = src;
+            mDestination = dst;
+            mFirstColumn = firstColumn;
+            mLastColumn = lastColumn;
+        }
+
+        @Override
+        protected void compute() {
+            int columns = mLastColumn - mFirstColumn;
+            if (columns < 2 * MIN_COLUMNS
+                    || (long) columns * mHeight <= mThreshold) {
+                computeDirectly();
+                return;
+            }
+
+            int split = mFirstColumn + columns / 2;
+            invokeAll(new VerticalPass(mSource, mDestination, mFirstColumn, split),
+                    new VerticalPass(mSource, mDestination, split, mLastColumn));
+        }
+
+        private void computeDirectly() {
+            int sidePixels = (mBlurWidth - 1) / 2;
+            int last = mHeight - 1;
+            int columns = mLastColumn - mFirstColumn;
+            int[] rt = new int[columns];
+            int[] gt = new int[columns];
+            int[] bt = new int[columns];
+
+            // Prime the window for y == 0, clamping at the top edge.
+            for (int mi = -sidePixels; mi <= sidePixels; mi++) {
+                int row = Math.min(Math.max(mi, 0), last) * mWidth;
+                for (int c = 0; c < columns; c++) {
+                    int pixel = mSource[row + mFirstColumn + c];
+                    rt[c] += (pixel >> 16) & 0xff;
+                    gt[c] += (pixel >> 8) & 0xff;
+                    bt[c] += pixel & 0xff;
+                }
+            }
+
+            for (int y = 0; y < mHeight; y++) {
+                int row = y * mWidth + mFirstColumn;
+                int outRow = Math.max(y - sidePixels, 0) * mWidth + mFirstColumn;
+                int inRow = Math.min(y + sidePixels + 1, last) * mWidth
+                        + mFirstColumn;
+                for (int c = 0; c < columns; c++) {
+                    mDestination[row + c] = 0xff000000
+                            | (mDivide[rt[c]] << 16)
+                            | (mDivide[gt[c]] << 8)
+                            | mDivide[bt[c]];
+
+                    // Slide the window one pixel down.
+                    int out = mSource[outRow + c];
+                    int in = mSource[inRow + c];
+                    rt[c] += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                    gt[c] += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                    bt[c] += (in & 0xff) - (out & 0xff);
+                }
+            }
+        }
+    }
+}
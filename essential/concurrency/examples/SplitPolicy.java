@@ -0,0 +1,163 @@
+/*
+* Copyright (c) 2010, 2013, Oracle and/or its affiliates. All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions
+* are met:
+*
+*   - Redistributions of source code must retain the above copyright
+*     notice, this list of conditions and the following disclaimer.
+*
+*   - Redistributions in binary form must reproduce the above copyright
+*     notice, this list of conditions and the following disclaimer in the
+*     documentation and/or other materials provided with the distribution.
+*
+*   - Neither the name of Oracle or the names of its
+*     contributors may be used to endorse or promote products derived
+*     from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+* IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+* THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+* PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+* EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+* PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+* NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * SplitPolicy decides whether a fork/join task should split its range in two
+ * or process it directly. It also counts the tasks it lets fork and the leaves
+ * it lets run, so that a policy can be tuned without recompiling.
+ *
+ * Use fixed() for a constant leaf size, like ForkBlur.sThreshold, or
+ * adaptive() to derive the leaf size from the pool, the input length and a
+ * short calibration run.
+ */
+public abstract class SplitPolicy {
+
+    private final LongAdder mForked = new LongAdder();
+    private final LongAdder mLeaves = new LongAdder();
+    // The pool's steal count when the counters were last reset.
+    private long mStealsBefore;
+
+    /** Returns the number of elements below which a task is not split. */
+    public abstract int leafSize();
+
+    /**
+     * Returns true if a task over length elements should be split. Called
+     * from inside a running task.
+     */
+    public boolean shouldSplit(int length) {
+        if (length < leafSize() || isSaturated(length)) {
+            mLeaves.increment();
+            return false;
+        }
+        mForked.add(2);
+        return true;
+    }
+
+    // Returns true if the current worker already has enough work queued that
+    // splitting a task over length elements would not help.
+    protected boolean isSaturated(int length) {
+        return false;
+    }
+
+    public long forkedCount() {
+        return mForked.sum();
+    }
+
+    public long leafCount() {
+        return mLeaves.sum();
+    }
+
+    /**
+     * Starts counting afresh, so that the next report covers only the runs
+     * in pool from now on.
+     */
+    public void reset(ForkJoinPool pool) {
+        mForked.reset();
+        mLeaves.reset();
+        mStealsBefore = pool.getStealCount();
+    }
+
+    public String report(ForkJoinPool pool) {
+        return "Leaf size " + leafSize() + ", "
+                + forkedCount() + " tasks forked, "
+                + leafCount() + " leaves, "
+                + (pool.getStealCount() - mStealsBefore) + " steals";
+    }
+
+    /**
+     * Returns a policy that splits every task of at least leafSize elements.
+     * A task of one element cannot be split, so leafSize is at least 2.
+     */
+    public static SplitPolicy fixed(int leafSize) {
+        final int size = Math.max(leafSize, 2);
+        return new SplitPolicy() {
+            @Override
+            public int leafSize() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns a policy tuned for pool and an input of length elements.
+     * sample.accept(n) must process n elements directly; it is timed once to
+     * estimate the cost of an element.
+     */
+    public static SplitPolicy adaptive(ForkJoinPool pool, int length,
+            IntConsumer sample) {
+        return new Adaptive(pool.getParallelism(), length, sample);
+    }
+
+    private static class Adaptive extends SplitPolicy {
+        // Leaves per worker, so that uneven leaves can be balanced by stealing.
+        private static final int LEAVES_PER_WORKER = 8;
+        // Least work a leaf should do, to amortize the cost of forking it.
+        private static final long MIN_LEAF_NANOS = 50000;
+        // Tasks a worker may have queued before it stops splitting.
+        private static final int MAX_SURPLUS = 3;
+        // Only tasks at most this many leaves long look at the surplus, so
+        // a saturated worker never runs a large range on its own.
+        private static final int SURPLUS_WINDOW = 8;
+        private static final int CALIBRATION_LENGTH = 4096;
+
+        private final int mLeafSize;
+
+        Adaptive(int parallelism, int length, IntConsumer sample) {
+            int n = Math.max(Math.min(CALIBRATION_LENGTH, length), 1);
+            sample.accept(n); // Warm up.
+            long start = System.nanoTime();
+            sample.accept(n);
+            double nanosPerElement =
+                    Math.max(System.nanoTime() - start, 1) / (double) n;
+
+            long minLeaf = (long) Math.ceil(MIN_LEAF_NANOS / nanosPerElement);
+            long balancedLeaf = length / ((long) parallelism * LEAVES_PER_WORKER);
+            mLeafSize = (int) Math.max(Math.min(Math.max(minLeaf, balancedLeaf),
+                    length), 2);
+        }
+
+        @Override
+        public int leafSize() {
+            return mLeafSize;
+        }
+
+        @Override
+        protected boolean isSaturated(int length) {
+            return length < (long) mLeafSize * SURPLUS_WINDOW
+                    && ForkJoinTask.getSurplusQueuedTaskCount() > MAX_SURPLUS;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+* Copyright (c) 2010, 2013, Oracle and/or its affiliates. All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions
+* are met:
+*
+*   - Redistributions of source code must retain the above copyright
+*     notice, this list of conditions and the following disclaimer.
+*
+*   - Redistributions in binary form must reproduce the above copyright
+*     notice, this list of conditions and the following disclaimer in the
+*     documentation and/or other materials provided with the distribution.
+*
+*   - Neither the name of Oracle or the names of its
+*     contributors may be used to endorse or promote products derived
+*     from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+* IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+* THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+* PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+* EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+* PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+* NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * StreamingBlur blurs an image file that may be too large to hold in memory.
+ * The source is decoded one horizontal strip at a time, each strip is blurred
+ * with SeparableBlur in a fork/join pool, and the result is written into the
+ * destination file as soon as it is ready. Only one strip is held in memory
+ * at a time.
+ *
+ * Each strip is read with a halo of (blurWidth - 1) / 2 extra rows above and
+ * below it, so the output is the same as blurring the whole image at once.
+ *
+ * The destination format must let an ImageWriter write an empty image and
+ * then replace its pixels; of the standard formats only TIFF does.
+ */
+public class StreamingBlur {
+
+    private final int mBlurWidth; // Processing window size, should be odd.
+    private final int mStripHeight;
+    private final int mThreshold;
+
+    public StreamingBlur(int blurWidth, int stripHeight, int threshold) {
+        if (stripHeight < 1) {
+            throw new IllegalArgumentException("strip height must be positive: "
+                    + stripHeight);
+        }
+        mBlurWidth = blurWidth;
+        mStripHeight = stripHeight;
+        mThreshold = threshold;
+    }
+
+    /**
+     * Blurs srcFile into dstFile, which is written in formatName and
+     * replaced if it exists. Returns the number of strips processed.
+     */
+    public int blur(File srcFile, File dstFile, String formatName,
+            ForkJoinPool pool) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(srcFile);
+        if (in == null) {
+            throw new IOException("Cannot open " + srcFile);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + srcFile);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true);
+                return blur(reader, dstFile, formatName, pool);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private int blur(ImageReader reader, File dstFile, String formatName,
+            ForkJoinPool pool) throws IOException {
+        int w = reader.getWidth(0);
+        int h = reader.getHeight(0);
+
+        Files.deleteIfExists(dstFile.toPath());
+        ImageOutputStream out = ImageIO.createImageOutputStream(dstFile);
+        if (out == null) {
+            throw new IOException("Cannot create " + dstFile);
+        }
+        try {
+            ImageWriter writer = incrementalWriter(formatName, out);
+            try {
+                ImageTypeSpecifier type = ImageTypeSpecifier
+                        .createFromBufferedImageType(BufferedImage.TYPE_INT_RGB);
+                ImageWriteParam writeParam = writer.getDefaultWriteParam();
+                writer.prepareWriteEmpty(null, type, w, h, null, null, writeParam);
+
+                int strips = 0;
+                int side = (mBlurWidth - 1) / 2;
+                int maxRows = Math.min(mStripHeight + 2 * side, h);
+                int[] src = new int[w * maxRows];
+                int[] dst = new int[w * maxRows];
+                BufferedImage strip = null;
+                ImageReadParam readParam = reader.getDefaultReadParam();
+
+                for (int y = 0; y < h; y += mStripHeight) {
+                    int rows = Math.min(mStripHeight, h - y);
+                    int top = Math.max(y - side, 0);
+                    int bottom = Math.min(y + rows + side, h);
+
+                    // Decode this strip plus its halo.
+                    readParam.setSourceRegion(
+                            new Rectangle(0, top, w, bottom - top));
+                    BufferedImage region = reader.read(0, readParam);
+                    region.getRGB(0, 0, w, bottom - top, src, 0, w);
+                    region = null;
+
+                    new SeparableBlur(w, bottom - top, mBlurWidth, mThreshold)
+                            .blur(src, dst, pool);
+
+                    // Write the strip without its halo.
+                    if (strip == null || strip.getHeight() != rows) {
+                        strip = new BufferedImage(w, rows,
+                                BufferedImage.TYPE_INT_RGB);
+                    }
+                    strip.setRGB(0, 0, w, rows, dst, (y - top) * w, w);
+                    Rectangle target = new Rectangle(0, y, w, rows);
+                    writer.prepareReplacePixels(0, target);
+                    writeParam.setDestinationOffset(new Point(0, y));
+                    writer.replacePixels(strip, writeParam);
+                    writer.endReplacePixels();
+                    strips++;
+                }
+
+                writer.endWriteEmpty();
+                return strips;
+            } finally {
+                writer.dispose();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // Returns a writer for formatName that can write an empty image into out
+    // and then replace its pixels a strip at a time.
+    private static ImageWriter incrementalWriter(String formatName,
+            ImageOutputStream out) throws IOException {
+        Iterator<ImageWriter> writers =
+                ImageIO.getImageWritersByFormatName(formatName);
+        while (writers.hasNext()) {
+            ImageWriter writer = writers.next();
+            writer.setOutput(out);
+            if (writer.canWriteEmpty()) {
+                return writer;
+            }
+            writer.dispose();
+        }
+        throw new IOException("No " + formatName
+                + " writer can write an image incrementally; try tiff");
+    }
+}
@@ -29,12 +29,16 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */ 
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class Adler32 implements Checksum {
     private int value = 1;
 
     /*
      * BASE is the largest prime number smaller than 65536
-     * NMAX is the largest n such that 255n(n+1)/2 + (n+1)(BASE-1) <= 2^32-1
+     * NMAX is the largest n such that 255n(n+1)/2 + (n+1)(BASE-1) <= 2^32-1,
+     * so s2 must be reduced as an unsigned int
      */
     private static final int BASE = 65521;
     private static final int NMAX = 5552;
@@ -43,11 +47,14 @@ public class Adler32 implements Checksum {
      * Update current Adler-32 checksum given the specified byte.
      */
     public void update(int b) {
-        int s1 = value & 0xffff;
-        int s2 = (value >> 16) & 0xffff;
-        s1 += b & 0xff;
-        s2 += s1;
-        value = ((s2 % BASE) << 16) | (s1 % BASE);
+        // both sums stay below 2 * BASE, so a subtraction does for modulo
+        int s1 = (value & 0xffff) + (b & 0xff);
+        if (s1 >= BASE)
+            s1 -= BASE;
+        int s2 = ((value >>> 16) & 0xffff) + s1;
+        if (s2 >= BASE)
+            s2 -= BASE;
+        value = (s2 << 16) | s1;
     }
 
     /**
@@ -55,19 +62,79 @@ public class Adler32 implements Checksum {
      */
     public void update(byte[] b, int off, int len) {
         int s1 = value & 0xffff;
-        int s2 = (value >> 16) & 0xffff;
+        int s2 = (value >>> 16) & 0xffff;
 
+        // the sums only need reducing every NMAX bytes; NMAX is a multiple
+        // of 16, so all but the last block is done 16 bytes at a time
         while (len > 0) {
             int k = len < NMAX ? len : NMAX;
             len -= k;
+            for (; k >= 16; k -= 16, off += 16) {
+                s1 += b[off] & 0xff;      s2 += s1;
+                s1 += b[off + 1] & 0xff;  s2 += s1;
+                s1 += b[off + 2] & 0xff;  s2 += s1;
+                s1 += b[off + 3] & 0xff;  s2 += s1;
+                s1 += b[off + 4] & 0xff;  s2 += s1;
+                s1 += b[off + 5] & 0xff;  s2 += s1;
+                s1 += b[off + 6] & 0xff;  s2 += s1;
+                s1 += b[off + 7] & 0xff;  s2 += s1;
+                s1 += b[off + 8] & 0xff;  s2 += s1;
+                s1 += b[off + 9] & 0xff;  s2 += s1;
+                s1 += b[off + 10] & 0xff; s2 += s1;
+                s1 += b[off + 11] & 0xff; s2 += s1;
+                s1 += b[off + 12] & 0xff; s2 += s1;
+                s1 += b[off + 13] & 0xff; s2 += s1;
+                s1 += b[off + 14] & 0xff; s2 += s1;
+                s1 += b[off + 15] & 0xff; s2 += s1;
+            }
             while (k-- > 0) {
                 s1 += b[off++] & 0xff;
                 s2 += s1;
             }
             s1 %= BASE;
-            s2 %= BASE;
+            s2 = Integer.remainderUnsigned(s2, BASE);
+        }
+        value = (s2 << 16) | s1;
+    }
+
+    /**
+     * Update current Adler-32 checksum given the bytes remaining in the
+     * specified buffer. Direct buffers are read eight bytes at a time.
+     */
+    public void update(ByteBuffer b) {
+        if (b.hasArray()) {
+            update(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            b.position(b.limit());
+            return;
+        }
+
+        ByteBuffer in = b.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int s1 = value & 0xffff;
+        int s2 = (value >>> 16) & 0xffff;
+        int len = in.remaining();
+        while (len > 0) {
+            int k = len < NMAX ? len : NMAX;
+            len -= k;
+            for (; k >= 8; k -= 8) {
+                long v = in.getLong();
+                s1 += (int)(v >>> 56);         s2 += s1;
+                s1 += (int)(v >>> 48) & 0xff;  s2 += s1;
+                s1 += (int)(v >>> 40) & 0xff;  s2 += s1;
+                s1 += (int)(v >>> 32) & 0xff;  s2 += s1;
+                s1 += (int)(v >>> 24) & 0xff;  s2 += s1;
+                s1 += (int)(v >>> 16) & 0xff;  s2 += s1;
+                s1 += (int)(v >>> 8) & 0xff;   s2 += s1;
+                s1 += (int)v & 0xff;           s2 += s1;
+            }
+            while (k-- > 0) {
+                s1 += in.get() & 0xff;
+                s2 += s1;
+            }
+            s1 %= BASE;
+            s2 = Integer.remainderUnsigned(s2, BASE);
         }
         value = (s2 << 16) | s1;
+        b.position(b.limit());
     }
 
     /**
@@ -81,6 +148,6 @@ public class Adler32 implements Checksum {
      * Returns current checksum value.
      */
     public long getValue() {
-        return (long)value & 0xffffffff;
+        return (long)value & 0xffffffffL;
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CRC-32C, the CRC with the Castagnoli polynomial, as used by iSCSI, SCTP
+ * and ext4. Arrays and buffers are processed eight bytes at a time with
+ * "slicing-by-8": eight tables give the effect of each byte of a word on
+ * the CRC, so a word costs eight lookups and no shifts between bytes.
+ */
+public class CRC32C implements Checksum {
+    private int crc = ~0;
+
+    // the reflected Castagnoli polynomial
+    private static final int POLY = 0x82f63b78;
+
+    private static final int[][] T = new int[8][256];
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++)
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            T[0][n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int t = 1; t < 8; t++)
+                T[t][n] = (T[t - 1][n] >>> 8) ^ T[0][T[t - 1][n] & 0xff];
+        }
+    }
+
+    /**
+     * Update current CRC-32C given the specified byte.
+     */
+    public void update(int b) {
+        crc = (crc >>> 8) ^ T[0][(crc ^ b) & 0xff];
+    }
+
+    /**
+     * Update current CRC-32C given the specified byte array.
+     */
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int[] t0 = T[0], t1 = T[1], t2 = T[2], t3 = T[3];
+        int[] t4 = T[4], t5 = T[5], t6 = T[6], t7 = T[7];
+        for (; len >= 8; len -= 8, off += 8) {
+            c ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8
+                | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            int hi = (b[off + 4] & 0xff) | (b[off + 5] & 0xff) << 8
+                | (b[off + 6] & 0xff) << 16 | (b[off + 7] & 0xff) << 24;
+            c = t7[c & 0xff] ^ t6[(c >>> 8) & 0xff] ^ t5[(c >>> 16) & 0xff]
+                ^ t4[c >>> 24] ^ t3[hi & 0xff] ^ t2[(hi >>> 8) & 0xff]
+                ^ t1[(hi >>> 16) & 0xff] ^ t0[hi >>> 24];
+        }
+        while (len-- > 0)
+            c = (c >>> 8) ^ t0[(c ^ b[off++]) & 0xff];
+        crc = c;
+    }
+
+    /**
+     * Update current CRC-32C given the bytes remaining in the specified
+     * buffer. Direct buffers are read a long at a time.
+     */
+    public void update(ByteBuffer b) {
+        if (b.hasArray()) {
+            update(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            b.position(b.limit());
+            return;
+        }
+
+        ByteBuffer in = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int c = crc;
+        int[] t0 = T[0], t1 = T[1], t2 = T[2], t3 = T[3];
+        int[] t4 = T[4], t5 = T[5], t6 = T[6], t7 = T[7];
+        while (in.remaining() >= 8) {
+            long v = in.getLong();
+            c ^= (int)v;
+            int hi = (int)(v >>> 32);
+            c = t7[c & 0xff] ^ t6[(c >>> 8) & 0xff] ^ t5[(c >>> 16) & 0xff]
+                ^ t4[c >>> 24] ^ t3[hi & 0xff] ^ t2[(hi >>> 8) & 0xff]
+                ^ t1[(hi >>> 16) & 0xff] ^ t0[hi >>> 24];
+        }
+        while (in.hasRemaining())
+            c = (c >>> 8) ^ t0[(c ^ in.get()) & 0xff];
+        crc = c;
+        b.position(b.limit());
+    }
+
+    /**
+     * Reset CRC-32C to initial value.
+     */
+    public void reset() {
+        crc = ~0;
+    }
+
+    /**
+     * Returns current checksum value.
+     */
+    public long getValue() {
+        return (long)~crc & 0xffffffffL;
+    }
+}
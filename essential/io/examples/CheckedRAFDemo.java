@@ -33,9 +33,49 @@ import java.io.RandomAccessFile;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.EOFException;
+import java.nio.ByteBuffer;
 
+/**
+ * Copies farrago.txt to outagain.txt a byte at a time, printing the
+ * checksums of the bytes read and written. With -channel, the copy goes
+ * through the files' channels a buffer at a time instead.
+ *
+ * Usage:
+ *     java CheckedRAFDemo [-channel [buffer-size]]
+ */
 public class CheckedRAFDemo {
+
+    /**
+     * Copies through checked channels with one direct buffer, so that each
+     * read and write moves a whole buffer and is checksummed as a whole.
+     */
+    static void channelCopy(int bufferSize) throws IOException {
+        try (RandomAccessFile inFile = new RandomAccessFile("farrago.txt", "r");
+             RandomAccessFile outFile = new RandomAccessFile("outagain.txt", "rw");
+             CheckedReadableChannel in = new CheckedReadableChannel(
+                 inFile.getChannel(), new Adler32());
+             CheckedWritableChannel out = new CheckedWritableChannel(
+                 outFile.getChannel(), new Adler32())) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            while (in.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                out.write(buffer);
+                buffer.compact();
+            }
+            outFile.setLength(outFile.getFilePointer());
+
+            System.out.println("Input stream check sum: " +
+                               in.getChecksum().getValue());
+            System.out.println("Output stream check sum: " +
+                               out.getChecksum().getValue());
+        }
+    }
+
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("-channel")) {
+            channelCopy(args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024);
+            return;
+        }
 
         Adler32 inChecker = new Adler32();
         Adler32 outChecker = new Adler32();
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * A channel that updates a checksum with the bytes read through it, a
+ * buffer at a time.
+ */
+public class CheckedReadableChannel implements ScatteringByteChannel {
+    private final ReadableByteChannel ch;
+    private Checksum cksum;
+
+    public CheckedReadableChannel(ReadableByteChannel ch, Checksum cksum) {
+        this.ch = ch;
+        this.cksum = cksum;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        int pos = dst.position();
+        int n = ch.read(dst);
+        if (n > 0)
+            update(cksum, dst, pos, dst.position());
+        return n;
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        if (!(ch instanceof ScatteringByteChannel)) {
+            // fill the buffers in turn, stopping at a short read
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int want = dsts[i].remaining();
+                int n = read(dsts[i]);
+                if (n < 0)
+                    return (total == 0) ? -1 : total;
+                total += n;
+                if (n < want)
+                    break;
+            }
+            return total;
+        }
+
+        int[] pos = new int[length];
+        for (int i = 0; i < length; i++)
+            pos[i] = dsts[offset + i].position();
+        long n = ((ScatteringByteChannel)ch).read(dsts, offset, length);
+        for (int i = 0; i < length && n > 0; i++)
+            update(cksum, dsts[offset + i], pos[i], dsts[offset + i].position());
+        return n;
+    }
+
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    public void close() throws IOException {
+        ch.close();
+    }
+
+    public Checksum getChecksum() {
+        return cksum;
+    }
+
+    /**
+     * Updates a checksum with the bytes between two positions of a buffer,
+     * leaving the buffer's position and limit alone.
+     */
+    static void update(Checksum cksum, ByteBuffer b, int from, int to) {
+        if (from == to)
+            return;
+        ByteBuffer bytes = b.duplicate();
+        bytes.limit(to).position(from);
+        cksum.update(bytes);
+    }
+}
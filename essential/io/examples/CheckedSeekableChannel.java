@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A seekable channel that updates a checksum with every byte read or
+ * written through it, in the order they pass. Moving the position does not
+ * change the checksum, so for a checksum of a file's contents the file must
+ * be read or written from start to end.
+ */
+public class CheckedSeekableChannel implements SeekableByteChannel {
+    private final SeekableByteChannel ch;
+    private Checksum cksum;
+
+    public CheckedSeekableChannel(SeekableByteChannel ch, Checksum cksum) {
+        this.ch = ch;
+        this.cksum = cksum;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        int pos = dst.position();
+        int n = ch.read(dst);
+        if (n > 0)
+            CheckedReadableChannel.update(cksum, dst, pos, dst.position());
+        return n;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        int pos = src.position();
+        int n = ch.write(src);
+        CheckedReadableChannel.update(cksum, src, pos, src.position());
+        return n;
+    }
+
+    public long position() throws IOException {
+        return ch.position();
+    }
+
+    public CheckedSeekableChannel position(long newPosition) throws IOException {
+        ch.position(newPosition);
+        return this;
+    }
+
+    public long size() throws IOException {
+        return ch.size();
+    }
+
+    public CheckedSeekableChannel truncate(long size) throws IOException {
+        ch.truncate(size);
+        return this;
+    }
+
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    public void close() throws IOException {
+        ch.close();
+    }
+
+    public Checksum getChecksum() {
+        return cksum;
+    }
+}
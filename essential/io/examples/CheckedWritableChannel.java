@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel that updates a checksum with the bytes written through it, a
+ * buffer at a time. Only the bytes the underlying channel accepts are
+ * counted.
+ */
+public class CheckedWritableChannel implements GatheringByteChannel {
+    private final WritableByteChannel ch;
+    private Checksum cksum;
+
+    public CheckedWritableChannel(WritableByteChannel ch, Checksum cksum) {
+        this.ch = ch;
+        this.cksum = cksum;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        int pos = src.position();
+        int n = ch.write(src);
+        CheckedReadableChannel.update(cksum, src, pos, src.position());
+        return n;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (!(ch instanceof GatheringByteChannel)) {
+            // write the buffers in turn, stopping at a short write
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int want = srcs[i].remaining();
+                int n = write(srcs[i]);
+                total += n;
+                if (n < want)
+                    break;
+            }
+            return total;
+        }
+
+        int[] pos = new int[length];
+        for (int i = 0; i < length; i++)
+            pos[i] = srcs[offset + i].position();
+        long n = ((GatheringByteChannel)ch).write(srcs, offset, length);
+        for (int i = 0; i < length; i++)
+            CheckedReadableChannel.update(cksum, srcs[offset + i], pos[i],
+                                          srcs[offset + i].position());
+        return n;
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    public void close() throws IOException {
+        ch.close();
+    }
+
+    public Checksum getChecksum() {
+        return cksum;
+    }
+}
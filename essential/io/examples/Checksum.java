@@ -29,6 +29,8 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */ 
 
+import java.nio.ByteBuffer;
+
 public interface Checksum {
     /**
      * Updates the current checksum with the specified byte.
@@ -40,6 +42,24 @@ public interface Checksum {
      */
     public void update(byte[] b, int off, int len);
 
+    /**
+     * Updates the current checksum with the bytes remaining in the
+     * specified buffer, which is left with no bytes remaining.
+     */
+    public default void update(ByteBuffer b) {
+        if (b.hasArray()) {
+            update(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            b.position(b.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(b.remaining(), 4096)];
+            while (b.hasRemaining()) {
+                int n = Math.min(b.remaining(), chunk.length);
+                b.get(chunk, 0, n);
+                update(chunk, 0, n);
+            }
+        }
+    }
+
     /**
      * Returns the current checksum value.
      */
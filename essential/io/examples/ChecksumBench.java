@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Compares the speed of the Adler32 and CRC32C checksums in this directory
+ * with those in java.util.zip, over arrays, direct buffers and single bytes
+ * of several sizes, after checking that they compute the same values.
+ *
+ * Each measurement is repeated after a warm-up so that the JIT compiler has
+ * compiled the loops being timed, and the median of the timed rounds is
+ * printed in megabytes per second.
+ *
+ * Usage:
+ *     java ChecksumBench [megabytes per round]
+ */
+public class ChecksumBench {
+
+    static final int[] SIZES = { 64, 4096, 1 << 20 };
+    static final int WARMUP_ROUNDS = 5;
+    static final int TIMED_ROUNDS = 7;
+
+    // keeps the checksums from being optimized away
+    static volatile long sink;
+
+    /**
+     * Adapts a java.util.zip checksum to the Checksum interface.
+     */
+    static class ZipChecksum implements Checksum {
+        private final java.util.zip.Checksum cksum;
+
+        ZipChecksum(java.util.zip.Checksum cksum) {
+            this.cksum = cksum;
+        }
+
+        public void update(int b) {
+            cksum.update(b);
+        }
+
+        public void update(byte[] b, int off, int len) {
+            cksum.update(b, off, len);
+        }
+
+        public void update(ByteBuffer b) {
+            cksum.update(b);
+        }
+
+        public long getValue() {
+            return cksum.getValue();
+        }
+
+        public void reset() {
+            cksum.reset();
+        }
+    }
+
+    enum Input { ARRAY, DIRECT, BYTES }
+
+    static Map<String,Checksum> checksums() {
+        Map<String,Checksum> map = new LinkedHashMap<>();
+        map.put("Adler32", new Adler32());
+        map.put("java.util.zip.Adler32", new ZipChecksum(new java.util.zip.Adler32()));
+        map.put("CRC32C", new CRC32C());
+        map.put("java.util.zip.CRC32C", new ZipChecksum(new java.util.zip.CRC32C()));
+        map.put("java.util.zip.CRC32", new ZipChecksum(new java.util.zip.CRC32()));
+        return map;
+    }
+
+    // Checksums count bytes of data, once, as the given input.
+    static void run(Checksum cksum, Input input, byte[] data, ByteBuffer direct, int count) {
+        for (int i = 0; i < count; i++) {
+            cksum.reset();
+            switch (input) {
+                case ARRAY:
+                    cksum.update(data, 0, data.length);
+                    break;
+                case DIRECT:
+                    direct.clear();
+                    cksum.update(direct);
+                    break;
+                case BYTES:
+                    for (byte b : data)
+                        cksum.update(b);
+                    break;
+            }
+            sink += cksum.getValue();
+        }
+    }
+
+    static double measure(Checksum cksum, Input input, byte[] data, ByteBuffer direct,
+                          long bytesPerRound) {
+        int count = (int)Math.max(1, bytesPerRound / data.length);
+        for (int r = 0; r < WARMUP_ROUNDS; r++)
+            run(cksum, input, data, direct, count);
+        double[] rates = new double[TIMED_ROUNDS];
+        for (int r = 0; r < TIMED_ROUNDS; r++) {
+            long start = System.nanoTime();
+            run(cksum, input, data, direct, count);
+            long nanos = System.nanoTime() - start;
+            rates[r] = (double)count * data.length / nanos * 1e9 / (1 << 20);
+        }
+        Arrays.sort(rates);
+        return rates[TIMED_ROUNDS / 2];
+    }
+
+    // Checks that each pair of implementations agree, whatever the input.
+    static void check(Map<String,Checksum> checksums) {
+        Random random = new Random(42);
+        byte[] data = new byte[100003];
+        random.nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        String[][] pairs = { { "Adler32", "java.util.zip.Adler32" },
+                             { "CRC32C", "java.util.zip.CRC32C" } };
+        for (String[] pair : pairs) {
+            Checksum ours = checksums.get(pair[0]);
+            Checksum theirs = checksums.get(pair[1]);
+            for (int len : new int[] { 0, 1, 7, 15, 16, 17, 5552, 5553, 65536, data.length }) {
+                theirs.reset();
+                theirs.update(data, 0, len);
+                long expected = theirs.getValue();
+
+                ours.reset();
+                ours.update(data, 0, len);
+                long array = ours.getValue();
+
+                ours.reset();
+                direct.limit(len).position(0);
+                ours.update(direct);
+                long buffer = ours.getValue();
+
+                ours.reset();
+                for (int i = 0; i < Math.min(len, 5553); i++)
+                    ours.update(data[i]);
+                theirs.reset();
+                theirs.update(data, 0, Math.min(len, 5553));
+                long bytes = ours.getValue();
+
+                if (array != expected || buffer != expected || bytes != theirs.getValue())
+                    throw new AssertionError(pair[0] + " differs from " + pair[1]
+                                             + " for " + len + " bytes");
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        long bytesPerRound = (args.length > 0 ? Long.parseLong(args[0]) : 64) << 20;
+        Map<String,Checksum> checksums = checksums();
+        check(checksums);
+
+        Random random = new Random(1);
+        System.out.format("%-24s %-7s %10s %10s %10s   (MB/s)%n", "checksum", "input",
+                          SIZES[0] + " B", (SIZES[1] >> 10) + " KB", (SIZES[2] >> 20) + " MB");
+        for (Input input : Input.values()) {
+            for (Map.Entry<String,Checksum> e : checksums.entrySet()) {
+                System.out.format("%-24s %-7s", e.getKey(), input.name().toLowerCase());
+                for (int size : SIZES) {
+                    byte[] data = new byte[size];
+                    random.nextBytes(data);
+                    ByteBuffer direct = ByteBuffer.allocateDirect(size);
+                    direct.put(data).flip();
+                    // single bytes are slow: time less of them
+                    long bytes = (input == Input.BYTES) ? bytesPerRound / 8 : bytesPerRound;
+                    System.out.format(" %10.0f", measure(e.getValue(), input, data, direct, bytes));
+                }
+                System.out.println();
+            }
+        }
+    }
+}
@@ -35,10 +35,16 @@ import static java.nio.file.attribute.PosixFilePermission.*;
 import static java.nio.file.FileVisitResult.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Sample code that changes the permissions of files in a similar manner to the
  * chmod(1) program.
+ *
+ * With -j, directory trees are changed by a pool of threads, and files that
+ * already have the requested permissions are left alone. With -n, nothing
+ * is changed and the number of files that would change is printed.
  */
 
 public class Chmod {
@@ -309,8 +315,138 @@ public class Chmod {
         }
     }
 
+    /**
+     * Changes the permissions of files and directory trees with a fork/join
+     * task for each directory. The permissions of each entry are taken from
+     * the attributes read while listing its directory, so a file whose
+     * permissions would not change costs no further system calls. A symbolic
+     * link named as an argument is followed, but links found in a tree are
+     * not followed or changed.
+     */
+    static class ParallelChmod {
+        private final Changer changer;
+        private final boolean recursive;
+        private final boolean dryRun;
+        private final ForkJoinPool pool;
+        private final LongAdder examined = new LongAdder();
+        private final LongAdder changed = new LongAdder();
+
+        ParallelChmod(Changer changer, boolean recursive, boolean dryRun, int threads) {
+            this.changer = changer;
+            this.recursive = recursive;
+            this.dryRun = dryRun;
+            this.pool = new ForkJoinPool(threads);
+        }
+
+        void chmod(Path file) {
+            PosixFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, PosixFileAttributes.class);
+            } catch (IOException x) {
+                System.err.println(x);
+                return;
+            }
+            if (recursive && attrs.isDirectory()) {
+                pool.invoke(new DirectoryTask(file, attrs));
+            } else {
+                apply(file, target(attrs));
+            }
+        }
+
+        void done() {
+            pool.shutdown();
+            if (dryRun) {
+                System.out.format("%d of %d files would change%n",
+                                  changed.sum(), examined.sum());
+            } else {
+                System.out.format("%d of %d files changed%n",
+                                  changed.sum(), examined.sum());
+            }
+        }
+
+        // Returns the permissions the file should have, or null if it
+        // already has them.
+        private Set<PosixFilePermission> target(PosixFileAttributes attrs) {
+            examined.increment();
+            Set<PosixFilePermission> current = attrs.permissions();
+            Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+            perms.addAll(current);
+            perms = changer.change(perms);
+            return perms.equals(current) ? null : perms;
+        }
+
+        // Links are followed, as for the files named on the command line;
+        // links met in a tree are skipped before they get here.
+        private void apply(Path file, Set<PosixFilePermission> perms) {
+            if (perms == null)
+                return;
+            if (!dryRun) {
+                try {
+                    Files.getFileAttributeView(file, PosixFileAttributeView.class)
+                         .setPermissions(perms);
+                } catch (IOException x) {
+                    System.err.println(x);
+                    return;
+                }
+            }
+            changed.increment();
+        }
+
+        // Changes a directory and the entries in it, forking a task for
+        // each subdirectory. A directory that stays readable and searchable
+        // is changed before its entries, otherwise after them, so that the
+        // change does not stop it being listed.
+        private class DirectoryTask extends RecursiveAction {
+            private final Path dir;
+            private final PosixFileAttributes attrs;
+
+            DirectoryTask(Path dir, PosixFileAttributes attrs) {
+                this.dir = dir;
+                this.attrs = attrs;
+            }
+
+            @Override
+            protected void compute() {
+                Set<PosixFilePermission> perms = target(attrs);
+                boolean before = (perms == null)
+                    || (perms.contains(OWNER_READ) && perms.contains(OWNER_EXECUTE));
+                if (before)
+                    apply(dir, perms);
+
+                List<DirectoryTask> subtasks = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        PosixFileAttributes entryAttrs;
+                        try {
+                            entryAttrs = Files.readAttributes(entry,
+                                PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException x) {
+                            System.err.println("WARNING: " + x);
+                            continue;
+                        }
+                        if (entryAttrs.isDirectory()) {
+                            DirectoryTask task = new DirectoryTask(entry, entryAttrs);
+                            task.fork();
+                            subtasks.add(task);
+                        } else if (!entryAttrs.isSymbolicLink()) {
+                            apply(entry, target(entryAttrs));
+                        }
+                    }
+                } catch (IOException | DirectoryIteratorException x) {
+                    System.err.println("WARNING: " + x);
+                }
+                for (DirectoryTask task : subtasks)
+                    task.join();
+
+                if (!before)
+                    apply(dir, perms);
+            }
+        }
+    }
+
     static void usage() {
         System.err.println("java Chmod [-R] symbolic-mode-list file...");
+        System.err.println("java Chmod [-R] [-j[threads]] [-n] symbolic-mode-list file...");
         System.exit(-1);
     }
 
@@ -319,15 +455,39 @@ public class Chmod {
             usage();
         int argi = 0;
         int maxDepth = 0;
-        if (args[argi].equals("-R")) {
-            if (args.length < 3)
+        int threads = 0;
+        boolean dryRun = false;
+        while (argi < args.length && args[argi].startsWith("-")) {
+            String arg = args[argi++];
+            if (arg.equals("-R")) {
+                maxDepth = Integer.MAX_VALUE;
+            } else if (arg.equals("-n")) {
+                dryRun = true;
+            } else if (arg.startsWith("-j")) {
+                // parallel chmod, with an optional number of threads
+                threads = (arg.length() > 2) ? Integer.parseInt(arg.substring(2)) :
+                    Runtime.getRuntime().availableProcessors();
+                if (threads < 1)
+                    usage();
+            } else {
                 usage();
-            argi++;
-            maxDepth = Integer.MAX_VALUE;
+            }
         }
+        if (args.length - argi < 2)
+            usage();
 
         // compile the symbolic mode expressions
         Changer changer = compile(args[argi++]);
+
+        if (threads > 0 || dryRun) {
+            ParallelChmod chmod = new ParallelChmod(changer, maxDepth > 0,
+                                                    dryRun, Math.max(threads, 1));
+            for (; argi < args.length; argi++)
+                chmod.chmod(Paths.get(args[argi]));
+            chmod.done();
+            return;
+        }
+
         TreeVisitor visitor = new TreeVisitor(changer);
 
         Set<FileVisitOption> opts = Collections.emptySet();
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Writes and reads the invoice records of DataStreams and ObjectStreams
+ * (price, units, description) a column at a time rather than a record at a
+ * time.
+ *
+ * The file holds, after an 8-byte header:
+ * <ul>
+ * <li> the prices, each as a long of the price's unscaled value at a scale
+ *      fixed for the file, so 19.99 at scale 2 is 1999;
+ * <li> the units, each as a variable-length integer of 7 bits per byte;
+ * <li> a dictionary of the distinct descriptions, each as its length in
+ *      bytes, as a variable-length integer, and its UTF-8 bytes;
+ * <li> the descriptions, each as the variable-length index of its entry in
+ *      the dictionary;
+ * <li> a footer giving the number of records, the scale, the size of the
+ *      dictionary and where each column starts, then the magic number.
+ * </ul>
+ * A reader maps the file and can add up the invoice total from the price
+ * and units columns alone, without making a BigDecimal or a String.
+ *
+ * The records are held in memory until the writer is closed, and the file
+ * is mapped whole, so a file is limited to 2GB.
+ */
+public class ColumnarInvoices {
+    static final String dataFile = "invoicedata.col";
+
+    static final int MAGIC = 0x494e5643;   // "INVC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int FOOTER_SIZE = 4 * 4 + 4 * 8 + 4;
+
+    /**
+     * A growable array of bytes holding variable-length integers.
+     */
+    private static class Bytes {
+        byte[] buf = new byte[1024];
+        int count;
+
+        void writeVarInt(int v) {
+            if (v < 0)
+                throw new IllegalArgumentException("Negative value: " + v);
+            ensure(5);
+            while (v >= 0x80) {
+                buf[count++] = (byte)(v | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte)v;
+        }
+
+        void write(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, count, b.length);
+            count += b.length;
+        }
+
+        private void ensure(int n) {
+            if (count + n > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + n));
+        }
+    }
+
+    /**
+     * Collects invoice records and writes them as columns when closed.
+     */
+    public static class Writer implements Closeable {
+        private final Path file;
+        private final int scale;
+        private long[] prices = new long[1024];
+        private int rows;
+        private final Bytes units = new Bytes();
+        private final Bytes codes = new Bytes();
+        private final Map<String,Integer> dictionary = new LinkedHashMap<>();
+
+        /**
+         * Creates a writer for prices with {@code scale} digits after the
+         * decimal point.
+         */
+        public Writer(Path file, int scale) {
+            this.file = file;
+            this.scale = scale;
+        }
+
+        /**
+         * Adds a record. The price must be exact at the writer's scale.
+         */
+        public void add(BigDecimal price, int unit, String desc) {
+            add(price.setScale(scale).unscaledValue().longValueExact(), unit, desc);
+        }
+
+        /**
+         * Adds a record whose price is given as its unscaled value.
+         */
+        public void add(long unscaledPrice, int unit, String desc) {
+            if (rows == prices.length)
+                prices = Arrays.copyOf(prices, 2 * rows);
+            prices[rows++] = unscaledPrice;
+            units.writeVarInt(unit);
+            Integer code = dictionary.get(desc);
+            if (code == null)
+                dictionary.put(desc, code = dictionary.size());
+            codes.writeVarInt(code);
+        }
+
+        @Override
+        public void close() throws IOException {
+            Bytes dict = new Bytes();
+            for (String desc : dictionary.keySet()) {
+                byte[] b = desc.getBytes(StandardCharsets.UTF_8);
+                dict.writeVarInt(b.length);
+                dict.write(b);
+            }
+            long pricesAt = HEADER_SIZE;
+            long unitsAt = pricesAt + 8L * rows;
+            long dictionaryAt = unitsAt + units.count;
+            long codesAt = dictionaryAt + dict.count;
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int i = 0; i < rows; i++)
+                    out.writeLong(prices[i]);
+                out.write(units.buf, 0, units.count);
+                out.write(dict.buf, 0, dict.count);
+                out.write(codes.buf, 0, codes.count);
+
+                out.writeInt(rows);
+                out.writeInt(scale);
+                out.writeInt(dictionary.size());
+                out.writeInt(0);
+                out.writeLong(pricesAt);
+                out.writeLong(unitsAt);
+                out.writeLong(dictionaryAt);
+                out.writeLong(codesAt);
+                out.writeInt(MAGIC);
+            }
+        }
+    }
+
+    /**
+     * Receives the records of a file, in order.
+     */
+    public interface Visitor {
+        void visit(long unscaledPrice, int units, int descCode);
+    }
+
+    /**
+     * Reads a file of invoice records by mapping it.
+     */
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final MappedByteBuffer map;
+        private final int rows;
+        private final int scale;
+        private final int dictionarySize;
+        private final int pricesAt;
+        private final int unitsAt;
+        private final int dictionaryAt;
+        private final int codesAt;
+        private String[] dictionary;
+
+        public Reader(Path file) throws IOException {
+            channel = FileChannel.open(file);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(file + ": too large to map");
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int footer = (int)size - FOOTER_SIZE;
+            if (size < HEADER_SIZE + FOOTER_SIZE || map.getInt(0) != MAGIC
+                    || map.getInt(4) != VERSION || map.getInt((int)size - 4) != MAGIC) {
+                channel.close();
+                throw new IOException(file + ": not a columnar invoice file");
+            }
+            rows = map.getInt(footer);
+            scale = map.getInt(footer + 4);
+            dictionarySize = map.getInt(footer + 8);
+            pricesAt = (int)map.getLong(footer + 16);
+            unitsAt = (int)map.getLong(footer + 24);
+            dictionaryAt = (int)map.getLong(footer + 32);
+            codesAt = (int)map.getLong(footer + 40);
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public int scale() {
+            return scale;
+        }
+
+        /**
+         * Returns the total of price times units, as an unscaled value at
+         * the file's scale. Reads only the price and units columns.
+         */
+        public long totalUnscaled() {
+            long total = 0;
+            int p = pricesAt;
+            int u = unitsAt;
+            for (int i = 0; i < rows; i++, p += 8) {
+                // read a variable-length integer in line
+                int unit = 0;
+                int shift = 0;
+                int b;
+                while (((b = map.get(u++)) & 0x80) != 0) {
+                    unit |= (b & 0x7f) << shift;
+                    shift += 7;
+                }
+                unit |= b << shift;
+                total = Math.addExact(total, Math.multiplyExact(map.getLong(p), (long)unit));
+            }
+            return total;
+        }
+
+        public BigDecimal total() {
+            return BigDecimal.valueOf(totalUnscaled(), scale);
+        }
+
+        /**
+         * Passes each record to {@code visitor}, with its description as an
+         * index into the dictionary.
+         */
+        public void forEach(Visitor visitor) {
+            int[] cursor = { unitsAt, codesAt };
+            for (int i = 0; i < rows; i++) {
+                int unit = readVarInt(cursor, 0);
+                int code = readVarInt(cursor, 1);
+                visitor.visit(map.getLong(pricesAt + 8 * i), unit, code);
+            }
+        }
+
+        /**
+         * Returns the description with the given index in the dictionary.
+         */
+        public synchronized String description(int code) {
+            if (dictionary == null) {
+                dictionary = new String[dictionarySize];
+                int[] cursor = { dictionaryAt };
+                for (int i = 0; i < dictionarySize; i++) {
+                    int length = readVarInt(cursor, 0);
+                    byte[] b = new byte[length];
+                    ByteBuffer view = map.duplicate();
+                    view.position(cursor[0]);
+                    view.get(b);
+                    cursor[0] += length;
+                    dictionary[i] = new String(b, StandardCharsets.UTF_8);
+                }
+            }
+            return dictionary[code];
+        }
+
+        private int readVarInt(int[] cursor, int i) {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = map.get(cursor[i]++);
+                v |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        try (Writer out = new Writer(Paths.get(dataFile), 2)) {
+            for (int i = 0; i < ObjectStreams.prices.length; i ++) {
+                out.add(ObjectStreams.prices[i], ObjectStreams.units[i],
+                        ObjectStreams.descs[i]);
+            }
+        }
+
+        try (final Reader in = new Reader(Paths.get(dataFile))) {
+            in.forEach(new Visitor() {
+                public void visit(long unscaledPrice, int unit, int descCode) {
+                    System.out.format("You ordered %d units of %s at $%.2f%n",
+                            unit, in.description(descCode),
+                            BigDecimal.valueOf(unscaledPrice, in.scale()));
+                }
+            });
+            System.out.format("For a TOTAL of: $%.2f%n", in.total());
+        }
+    }
+}
@@ -35,6 +35,8 @@ import java.nio.file.attribute.*;
 import static java.nio.file.FileVisitResult.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Sample code that copies files in a similar manner to the cp(1) program.
@@ -42,10 +44,41 @@ import java.util.*;
 
 public class Copy {
 
+    /**
+     * Files larger than this are copied with {@code ResumableCopy} when
+     * {@code largeFiles} is set ("-l").
+     */
+    static final long LARGE_FILE = ResumableCopy.CHUNK_SIZE;
+
+    /**
+     * How files are copied, beyond {@code prompt} and {@code preserve}.
+     */
+    static class Options {
+        // copy large files in resumable chunks ("-l"), and compare
+        // checksums of each copy ("-c")
+        final boolean largeFiles;
+        final boolean verify;
+        // skip files whose size and modification time match the target
+        // ("-u"), rewrite only the changed blocks of changed files ("-b"),
+        // and delete target entries that are not in the source ("-d")
+        final boolean update;
+        final boolean delta;
+        final boolean delete;
+
+        Options(boolean largeFiles, boolean verify,
+                boolean update, boolean delta, boolean delete) {
+            this.largeFiles = largeFiles;
+            this.verify = verify;
+            this.update = update;
+            this.delta = delta;
+            this.delete = delete;
+        }
+    }
+
     /**
      * Returns {@code true} if okay to overwrite a  file ("cp -i")
      */
-    static boolean okayToOverwrite(Path file) {
+    static synchronized boolean okayToOverwrite(Path file) {
         String answer = System.console().readLine("overwrite %s (yes/no)? ", file);
         return (answer.equalsIgnoreCase("y") || answer.equalsIgnoreCase("yes"));
     }
@@ -54,18 +87,55 @@ public class Copy {
      * Copy source file to target location. If {@code prompt} is true then
      * prompt user to overwrite target if it exists. The {@code preserve}
      * parameter determines if file attributes should be copied/preserved.
+     * Returns {@code true} if the target was written, or {@code false} if
+     * it was up to date, not to be overwritten, or could not be copied.
      */
-    static void copyFile(Path source, Path target, boolean prompt, boolean preserve) {
+    static boolean copyFile(Path source, Path target, boolean prompt, boolean preserve,
+                            Options opts) {
         CopyOption[] options = (preserve) ?
             new CopyOption[] { COPY_ATTRIBUTES, REPLACE_EXISTING } :
             new CopyOption[] { REPLACE_EXISTING };
-        if (!prompt || Files.notExists(target) || okayToOverwrite(target)) {
+        if (opts.update && DeltaCopy.isUpToDate(source, target))
+            return false;
+        boolean resume = opts.largeFiles && ResumableCopy.isResumable(target);
+        if (!prompt || resume || Files.notExists(target) || okayToOverwrite(target)) {
             try {
-                Files.copy(source, target, options);
+                if (opts.delta && !resume && Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+                    DeltaCopy.copyChangedBlocks(source, target);
+                    if (preserve)
+                        copyAttributes(source, target);
+                    if (opts.verify)
+                        ResumableCopy.verify(source, target);
+                } else if (opts.largeFiles && Files.size(source) > LARGE_FILE) {
+                    ResumableCopy.copy(source, target, opts.verify);
+                    if (preserve)
+                        copyAttributes(source, target);
+                } else {
+                    Files.copy(source, target, options);
+                    if (opts.verify)
+                        ResumableCopy.verify(source, target);
+                }
+                // the next update compares modification times, so keep them
+                if (opts.update && !preserve)
+                    Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+                return true;
             } catch (IOException x) {
                 System.err.format("Unable to copy: %s: %s%n", source, x);
             }
         }
+        return false;
+    }
+
+    /**
+     * Copies the modification time and, if supported, the POSIX permissions
+     * of {@code source} to {@code target}.
+     */
+    static void copyAttributes(Path source, Path target) throws IOException {
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        PosixFileAttributeView view =
+            Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view != null)
+            view.setPermissions(Files.getPosixFilePermissions(source));
     }
 
     /**
@@ -76,12 +146,15 @@ public class Copy {
         private final Path target;
         private final boolean prompt;
         private final boolean preserve;
+        private final Options opts;
 
-        TreeCopier(Path source, Path target, boolean prompt, boolean preserve) {
+        TreeCopier(Path source, Path target, boolean prompt, boolean preserve,
+                   Options opts) {
             this.source = source;
             this.target = target;
             this.prompt = prompt;
             this.preserve = preserve;
+            this.opts = opts;
         }
 
         @Override
@@ -105,13 +178,22 @@ public class Copy {
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-            copyFile(file, target.resolve(source.relativize(file)),
-                     prompt, preserve);
+            copy(file);
             return CONTINUE;
         }
 
+        // Copies a file of the tree, returning true if it was written.
+        boolean copy(Path file) {
+            return copyFile(file, target.resolve(source.relativize(file)),
+                            prompt, preserve, opts);
+        }
+
         @Override
         public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            // remove what is no longer in the source ("-d")
+            if (exc == null && opts.delete)
+                DeltaCopy.deleteExtraneous(dir, target.resolve(source.relativize(dir)));
+
             // fix up modification time of directory when done
             if (exc == null && preserve) {
                 Path newdir = target.resolve(source.relativize(dir));
@@ -136,9 +218,115 @@ public class Copy {
         }
     }
 
+    /**
+     * A {@code TreeCopier} that copies files on a pool of threads while the
+     * walking thread moves on ("cp -r -j"). Directories are still created in
+     * order by the walking thread, and the modification time of a directory
+     * is fixed up only once every file in it has been copied.
+     */
+    static class ParallelTreeCopier extends TreeCopier {
+        private final Executor pool;
+        private final Progress progress;
+        // The directories from the root of the walk down to the current one.
+        private final Deque<Directory> directories = new ArrayDeque<>();
+
+        ParallelTreeCopier(Path source, Path target, boolean prompt,
+                           boolean preserve, Options opts,
+                           Executor pool, Progress progress) {
+            super(source, target, prompt, preserve, opts);
+            this.pool = pool;
+            this.progress = progress;
+        }
+
+        /**
+         * A directory being copied. {@code pending} counts the files in it
+         * still being copied, plus one until the walk has left it.
+         */
+        private class Directory {
+            private final Path dir;
+            private final AtomicInteger pending = new AtomicInteger(1);
+            private IOException exc;
+
+            Directory(Path dir) {
+                this.dir = dir;
+            }
+
+            void release() {
+                if (pending.decrementAndGet() == 0)
+                    ParallelTreeCopier.super.postVisitDirectory(dir, exc);
+            }
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            FileVisitResult result = super.preVisitDirectory(dir, attrs);
+            if (result == CONTINUE)
+                directories.push(new Directory(dir));
+            return result;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+            final Directory parent = directories.peek();
+            if (parent != null)
+                parent.pending.incrementAndGet();
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if (copy(file))
+                            progress.copied(attrs.size());
+                        else
+                            progress.skipped();
+                    } finally {
+                        if (parent != null)
+                            parent.release();
+                    }
+                }
+            });
+            return CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            Directory directory = directories.pop();
+            directory.exc = exc;
+            directory.release();
+            return CONTINUE;
+        }
+    }
+
+    /**
+     * Counts the files and bytes copied, and the files not copied because
+     * they were up to date or could not be, for progress reports.
+     */
+    static class Progress {
+        private final long start = System.nanoTime();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+
+        void copied(long size) {
+            files.increment();
+            bytes.add(size);
+        }
+
+        void skipped() {
+            skipped.increment();
+        }
+
+        void report() {
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            long n = files.sum();
+            double mb = bytes.sum() / (1024.0 * 1024.0);
+            System.err.format("%d files, %.1f MB in %.1f s (%.0f files/s, %.1f MB/s),"
+                              + " %d not copied%n",
+                              n, mb, seconds, n / seconds, mb / seconds, skipped.sum());
+        }
+    }
+
     static void usage() {
-        System.err.println("java Copy [-ip] source... target");
-        System.err.println("java Copy -r [-ip] source-dir... target");
+        System.err.println("java Copy [-iplcub] source... target");
+        System.err.println("java Copy -r [-iplcubd] [-j[threads]] source-dir... target");
         System.exit(-1);
     }
 
@@ -146,6 +334,12 @@ public class Copy {
         boolean recursive = false;
         boolean prompt = false;
         boolean preserve = false;
+        boolean largeFiles = false;
+        boolean verify = false;
+        boolean update = false;
+        boolean delta = false;
+        boolean delete = false;
+        int threads = 0;
 
         // process options
         int argi = 0;
@@ -161,6 +355,23 @@ public class Copy {
                     case 'r' : recursive = true; break;
                     case 'i' : prompt = true; break;
                     case 'p' : preserve = true; break;
+                    case 'l' : largeFiles = true; break;
+                    case 'c' : verify = true; break;
+                    case 'u' : update = true; break;
+                    case 'b' : update = true; delta = true; break;
+                    case 'd' : delete = true; break;
+                    case 'j' :
+                        // parallel copy, with an optional number of threads
+                        int end = i + 1;
+                        while (end < arg.length() && Character.isDigit(arg.charAt(end)))
+                            end++;
+                        threads = (end > i + 1) ?
+                            Integer.parseInt(arg.substring(i + 1, end)) :
+                            2 * Runtime.getRuntime().availableProcessors();
+                        if (threads < 1)
+                            usage();
+                        i = end - 1;
+                        break;
                     default : usage();
                 }
             }
@@ -178,10 +389,31 @@ public class Copy {
             remaining--;
         }
         Path target = Paths.get(args[argi]);
+        Options options = new Options(largeFiles, verify, update, delta, delete);
 
         // check if target is a directory
         boolean isDir = Files.isDirectory(target);
 
+        // with -j, files are copied by a pool of threads; when its queue is
+        // full the walking thread copies the file itself, which slows the
+        // walk down to the pace of the copying
+        ThreadPoolExecutor pool = null;
+        Progress progress = null;
+        ScheduledExecutorService reporter = null;
+        if (recursive && threads > 0) {
+            pool = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(64 * threads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+            final Progress p = progress = new Progress();
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    p.report();
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+
         // copy each source file/directory to target
         for (i=0; i<source.length; i++) {
             Path dest = (isDir) ? target.resolve(source[i].getFileName()) : target;
@@ -189,7 +421,9 @@ public class Copy {
             if (recursive) {
                 // follow links when copying files
                 EnumSet<FileVisitOption> opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
-                TreeCopier tc = new TreeCopier(source[i], dest, prompt, preserve);
+                TreeCopier tc = (pool != null) ?
+                    new ParallelTreeCopier(source[i], dest, prompt, preserve, options, pool, progress) :
+                    new TreeCopier(source[i], dest, prompt, preserve, options);
                 Files.walkFileTree(source[i], opts, Integer.MAX_VALUE, tc);
             } else {
                 // not recursive so source must not be a directory
@@ -197,8 +431,22 @@ public class Copy {
                     System.err.format("%s: is a directory%n", source[i]);
                     continue;
                 }
-                copyFile(source[i], dest, prompt, preserve);
+                copyFile(source[i], dest, prompt, preserve, options);
+            }
+        }
+
+        // wait for the files still being copied
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
             }
+            reporter.shutdownNow();
+            progress.report();
         }
+        if (update || delete)
+            DeltaCopy.printSummary();
     }
 }
@@ -33,9 +33,25 @@ import java.io.FileWriter;
 import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 
+/**
+ * Copies xanadu.txt to characteroutput.txt a line at a time. With -mapped,
+ * the copy is made by LinePipeline instead, which maps the file and copies
+ * lines on several threads without decoding them:
+ *     java CopyLines -mapped [in out]
+ */
 public class CopyLines {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length > 0 && args[0].equals("-mapped")) {
+            String in = (args.length == 3) ? args[1] : "xanadu.txt";
+            String out = (args.length == 3) ? args[2] : "characteroutput.txt";
+            new LinePipeline(LinePipeline.COPY,
+                             Runtime.getRuntime().availableProcessors(), true)
+                .run(Paths.get(in), Paths.get(out));
+            return;
+        }
 
         BufferedReader inputStream = null;
         PrintWriter outputStream = null;
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import static java.nio.file.StandardOpenOption.*;
+import static java.nio.file.FileVisitResult.*;
+import java.nio.file.attribute.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Helpers for bringing an existing copy up to date instead of copying
+ * everything again, in the manner of rsync(1): unchanged files are skipped,
+ * only the changed blocks of a changed file are rewritten, and files that no
+ * longer exist in the source can be deleted from the target.
+ */
+
+public class DeltaCopy {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    // statistics for the summary printed at the end
+    private static final LongAdder skippedFiles = new LongAdder();
+    private static final LongAdder blocksChecked = new LongAdder();
+    private static final LongAdder blocksWritten = new LongAdder();
+    private static final LongAdder deleted = new LongAdder();
+
+    /**
+     * Returns {@code true} if {@code target} is a file of the same size and
+     * modification time as {@code source}, and so is taken to be unchanged.
+     * The times are compared to the millisecond, since a copy made with
+     * COPY_ATTRIBUTES, or kept on a file system with coarser timestamps,
+     * does not keep the nanoseconds of the original.
+     */
+    static boolean isUpToDate(Path source, Path target) {
+        try {
+            BasicFileAttributes s = Files.readAttributes(source, BasicFileAttributes.class);
+            BasicFileAttributes t = Files.readAttributes(target, BasicFileAttributes.class,
+                                                         LinkOption.NOFOLLOW_LINKS);
+            if (t.isRegularFile() && s.size() == t.size()
+                    && s.lastModifiedTime().to(TimeUnit.MILLISECONDS)
+                       == t.lastModifiedTime().to(TimeUnit.MILLISECONDS)) {
+                skippedFiles.increment();
+                return true;
+            }
+        } catch (IOException x) {
+            // target missing or unreadable: copy it
+        }
+        return false;
+    }
+
+    /**
+     * Makes the existing file {@code target} the same as {@code source} by
+     * rewriting only the blocks that differ. Both files are on hand, so the
+     * blocks are compared byte for byte.
+     */
+    static void copyChangedBlocks(Path source, Path target) throws IOException {
+        ByteBuffer sourceBlock = ByteBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer targetBlock = ByteBuffer.allocate(BLOCK_SIZE);
+
+        try (FileChannel in = FileChannel.open(source, READ);
+             FileChannel out = FileChannel.open(target, READ, WRITE)) {
+            long size = in.size();
+            for (long position = 0; position < size; position += BLOCK_SIZE) {
+                int sourceLength = readBlock(in, position, sourceBlock);
+                int targetLength = readBlock(out, position, targetBlock);
+                blocksChecked.increment();
+
+                if (sourceLength == targetLength
+                        && Arrays.equals(sourceBlock.array(), targetBlock.array()))
+                    continue;
+
+                sourceBlock.flip();
+                while (sourceBlock.hasRemaining())
+                    out.write(sourceBlock, position + sourceBlock.position());
+                blocksWritten.increment();
+            }
+            out.truncate(size);
+        }
+    }
+
+    /**
+     * Reads up to one block at {@code position} into {@code block}, zeroing
+     * the rest of it, and returns the number of bytes read.
+     */
+    private static int readBlock(FileChannel ch, long position, ByteBuffer block)
+        throws IOException
+    {
+        block.clear();
+        int n;
+        while (block.hasRemaining()
+                && (n = ch.read(block, position + block.position())) != -1) {
+            if (n == 0)
+                break;
+        }
+        int length = block.position();
+        Arrays.fill(block.array(), length, block.capacity(), (byte)0);
+        return length;
+    }
+
+    /**
+     * Deletes every entry of {@code targetDir} that has no counterpart of
+     * the same name in {@code sourceDir}, together with its contents.
+     */
+    static void deleteExtraneous(Path sourceDir, Path targetDir) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(targetDir)) {
+            for (Path entry : entries) {
+                Path counterpart = sourceDir.resolve(entry.getFileName().toString());
+                if (Files.notExists(counterpart, LinkOption.NOFOLLOW_LINKS))
+                    deleteTree(entry);
+            }
+        } catch (IOException x) {
+            System.err.format("Unable to list: %s: %s%n", targetDir, x);
+        }
+    }
+
+    private static void deleteTree(Path top) throws IOException {
+        Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException
+            {
+                Files.delete(file);
+                deleted.increment();
+                return CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                throws IOException
+            {
+                if (exc != null)
+                    throw exc;
+                Files.delete(dir);
+                deleted.increment();
+                return CONTINUE;
+            }
+        });
+        System.out.format("deleted: %s%n", top);
+    }
+
+    static void printSummary() {
+        System.err.format("%d unchanged files skipped, %d of %d blocks rewritten, %d entries deleted%n",
+                          skippedFiles.sum(), blocksWritten.sum(), blocksChecked.sum(),
+                          deleted.sum());
+    }
+}
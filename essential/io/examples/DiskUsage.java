@@ -31,11 +31,22 @@
 
 import java.nio.file.*;
 import java.nio.file.attribute.*;
+import java.io.File;
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Example utility that works like the df(1M) program to print out disk space
  * information
+ *
+ * With -index, it instead reads an index built by FileIndex and prints the
+ * space used by each entry of a directory, as du(1) would, without walking
+ * the tree.
+ *
+ * With -du, it walks the given directories in parallel and prints the
+ * directories that use the most space, as du(1) would.
  */
 
 public class DiskUsage {
@@ -55,7 +66,269 @@ public class DiskUsage {
         System.out.format("%-20s %12d %12d %12d\n", s, total, used, avail);
     }
 
+    /**
+     * Prints the total size of the files under each entry of {@code dir},
+     * largest first, from the index.
+     */
+    static void printIndexUsage(FileIndex index, Path dir) throws IOException {
+        final String rel = index.relativePath(dir);
+        if (rel == null)
+            throw new IOException(dir + ": not under " + index.root());
+        final Map<String,long[]> usage = new HashMap<>();
+        final long[] total = new long[1];
+        index.forEach(rel, new FileIndex.Visitor() {
+            public void visit(String path, long size, long modified, boolean directory) {
+                if (directory)
+                    return;
+                // charge the file to the entry of dir that contains it
+                String sub = rel.isEmpty() ? path : path.substring(rel.length() + 1);
+                int sep = sub.indexOf(File.separatorChar);
+                String top = (sep < 0) ? sub : sub.substring(0, sep);
+                long[] u = usage.get(top);
+                if (u == null)
+                    usage.put(top, u = new long[2]);
+                u[0] += size;
+                u[1]++;
+                total[0] += size;
+            }
+        });
+
+        List<Map.Entry<String,long[]>> list = new ArrayList<>(usage.entrySet());
+        Collections.sort(list, new Comparator<Map.Entry<String,long[]>>() {
+            public int compare(Map.Entry<String,long[]> a, Map.Entry<String,long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+        System.out.format("%12s %10s  %s\n", "kbytes", "files", "name");
+        for (Map.Entry<String,long[]> e : list) {
+            System.out.format("%12d %10d  %s\n", (e.getValue()[0] + K - 1) / K,
+                              e.getValue()[1], dir.resolve(e.getKey()));
+        }
+        System.out.format("%12d %10s  %s\n", (total[0] + K - 1) / K, "", "total");
+    }
+
+    /**
+     * Adds up the space used under a directory tree, with a fork/join task
+     * for each directory, and keeps the largest directories.
+     *
+     * Each directory's total counts both the space allocated to its files
+     * in blocks of the file store and their apparent size, the number of
+     * bytes they contain. Files with more than one link are counted once,
+     * by their file key, however many directories they appear in.
+     */
+    static class TreeUsage {
+        private final int top;
+        private final boolean unix;
+        private long blockSize;
+        private final Set<Object> linked = ConcurrentHashMap.newKeySet();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder directories = new LongAdder();
+
+        // The largest directories, smallest first, and the size a
+        // directory must exceed to join them once there are enough.
+        private final PriorityQueue<Usage> largest = new PriorityQueue<>();
+        private volatile long threshold = -1;
+
+        TreeUsage(int top) {
+            this.top = top;
+            this.unix = FileSystems.getDefault()
+                .supportedFileAttributeViews().contains("unix");
+        }
+
+        static class Usage implements Comparable<Usage> {
+            final Path dir;
+            final long allocated;
+            final long apparent;
+
+            Usage(Path dir, long allocated, long apparent) {
+                this.dir = dir;
+                this.allocated = allocated;
+                this.apparent = apparent;
+            }
+
+            public int compareTo(Usage other) {
+                return Long.compare(allocated, other.allocated);
+            }
+        }
+
+        /**
+         * Returns the usage of the tree under {@code dir}.
+         */
+        Usage measure(Path dir) throws IOException {
+            try {
+                blockSize = Files.getFileStore(dir).getBlockSize();
+            } catch (UnsupportedOperationException x) {
+                blockSize = 4096;
+            }
+            DirectoryTask task = new DirectoryTask(dir,
+                Files.readAttributes(dir, BasicFileAttributes.class).size());
+            long allocated = ForkJoinPool.commonPool().invoke(task);
+            return new Usage(dir, allocated, task.apparent);
+        }
+
+        /**
+         * Returns the largest directories seen, largest first.
+         */
+        synchronized List<Usage> largest() {
+            List<Usage> list = new ArrayList<>(largest);
+            Collections.sort(list, Collections.reverseOrder());
+            return list;
+        }
+
+        long files() {
+            return files.sum();
+        }
+
+        long directories() {
+            return directories.sum();
+        }
+
+        private long allocated(long size) {
+            return (size + blockSize - 1) / blockSize * blockSize;
+        }
+
+        private void offer(Usage usage) {
+            if (usage.allocated <= threshold)
+                return;
+            synchronized (this) {
+                largest.add(usage);
+                if (largest.size() > top) {
+                    largest.poll();
+                    threshold = largest.peek().allocated;
+                }
+            }
+        }
+
+        // What is needed of a directory entry, read with one call.
+        private static class Entry {
+            boolean directory;
+            long size;
+            Object link;    // for a file with other links, the same for them all
+        }
+
+        private Entry read(Path file) throws IOException {
+            Entry e = new Entry();
+            if (unix) {
+                Map<String,Object> attrs = Files.readAttributes(file,
+                    "unix:isDirectory,isRegularFile,size,nlink,dev,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+                e.directory = (Boolean)attrs.get("isDirectory");
+                e.size = (Long)attrs.get("size");
+                if ((Boolean)attrs.get("isRegularFile") && (Integer)attrs.get("nlink") > 1)
+                    e.link = Arrays.asList(attrs.get("dev"), attrs.get("ino"));
+            } else {
+                BasicFileAttributes attrs = Files.readAttributes(file,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                e.directory = attrs.isDirectory();
+                e.size = attrs.size();
+            }
+            return e;
+        }
+
+        // Adds up one directory: the files in it, then the totals of the
+        // tasks forked for its subdirectories. Returns the space allocated.
+        private class DirectoryTask extends RecursiveTask<Long> {
+            private final Path dir;
+            private final long size;
+            long apparent;
+
+            DirectoryTask(Path dir, long size) {
+                this.dir = dir;
+                this.size = size;
+            }
+
+            @Override
+            protected Long compute() {
+                directories.increment();
+                long allocated = allocated(size);
+                apparent = size;
+                List<DirectoryTask> subtasks = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        Entry e;
+                        try {
+                            e = read(entry);
+                        } catch (IOException x) {
+                            System.err.println(x);
+                            continue;
+                        }
+                        if (e.directory) {
+                            DirectoryTask task = new DirectoryTask(entry, e.size);
+                            task.fork();
+                            subtasks.add(task);
+                        } else if (e.link == null || linked.add(e.link)) {
+                            // counted once, however many links it has
+                            files.increment();
+                            allocated += allocated(e.size);
+                            apparent += e.size;
+                        }
+                    }
+                } catch (IOException | DirectoryIteratorException x) {
+                    System.err.println(x);
+                }
+                for (DirectoryTask task : subtasks) {
+                    allocated += task.join();
+                    apparent += task.apparent;
+                }
+                offer(new Usage(dir, allocated, apparent));
+                return allocated;
+            }
+        }
+    }
+
+    /**
+     * Prints the largest directories under each of {@code dirs}, and the
+     * total space used by each.
+     */
+    static void printTreeUsage(List<Path> dirs, int top) throws IOException {
+        TreeUsage usage = new TreeUsage(top);
+        long start = System.nanoTime();
+        List<TreeUsage.Usage> totals = new ArrayList<>();
+        for (Path dir : dirs)
+            totals.add(usage.measure(dir));
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        System.out.format("%12s %12s  %s\n", "kbytes", "apparent", "directory");
+        for (TreeUsage.Usage u : usage.largest())
+            System.out.format("%12d %12d  %s\n", u.allocated / K, (u.apparent + K - 1) / K, u.dir);
+        System.out.println();
+        for (TreeUsage.Usage u : totals)
+            System.out.format("%12d %12d  %s total\n", u.allocated / K, (u.apparent + K - 1) / K, u.dir);
+        System.out.format("%d directories, %d files in %d ms\n",
+                          usage.directories(), usage.files(), millis);
+    }
+
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("-du")) {
+            int top = 10;
+            int i = 1;
+            if (args.length > 2 && args[1].equals("-top")) {
+                top = Integer.parseInt(args[2]);
+                i = 3;
+            }
+            if (i >= args.length || top < 1) {
+                System.err.println("usage: java DiskUsage -du [-top <n>] dir...");
+                System.exit(-1);
+            }
+            List<Path> dirs = new ArrayList<>();
+            for (; i < args.length; i++)
+                dirs.add(Paths.get(args[i]));
+            printTreeUsage(dirs, top);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("-index")) {
+            if (args.length < 2 || args.length > 3) {
+                System.err.println("usage: java DiskUsage -index <index> [dir]");
+                System.exit(-1);
+            }
+            try (FileIndex index = FileIndex.open(Paths.get(args[1]))) {
+                Path dir = (args.length == 3) ? Paths.get(args[2]) : index.root();
+                printIndexUsage(index, dir);
+            }
+            return;
+        }
+
         System.out.format("%-20s %12s %12s %12s\n", "Filesystem", "kbytes", "used", "avail");
         if (args.length == 0) {
             FileSystem fs = FileSystems.getDefault();
@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2009, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import static java.nio.file.FileVisitResult.*;
+import static java.nio.file.StandardOpenOption.*;
+import java.util.*;
+
+/**
+ * A persistent index of a file tree, so that questions about the tree can
+ * be answered without walking it again.
+ *
+ * The index file holds, for every file and directory under the root, its
+ * path relative to the root, its size, its modification time and whether it
+ * is a directory, in a table sorted by path. It also holds a trigram index:
+ * for every three consecutive characters of a file name (ignoring case), the
+ * entries whose names contain them. The file is memory-mapped when opened,
+ * so only the parts that a query touches are read.
+ *
+ * Changes made after the index was built, as reported by WatchDir, are
+ * appended to a journal next to the index file and applied over the table
+ * when the index is opened. Rebuilding the index empties the journal.
+ *
+ * Usage:
+ *     java FileIndex build <dir> <index>
+ *     java FileIndex stats <index>
+ */
+
+public class FileIndex implements Closeable {
+
+    private static final int MAGIC = 0x46494458; // "FIDX"
+    private static final int VERSION = 1;
+
+    // Header fields, at these offsets from the start of the file.
+    private static final int COUNT = 8;
+    private static final int TRIGRAM_COUNT = 12;
+    private static final int ENTRIES = 16;
+    private static final int STRINGS = 24;
+    private static final int TRIGRAMS = 32;
+    private static final int POSTINGS = 40;
+    private static final int ROOT = 48;
+
+    // An entry is the offset and length of its path in the string table,
+    // its size, its modification time in milliseconds and its flags.
+    private static final int ENTRY_SIZE = 4 + 4 + 8 + 8 + 4;
+    // A trigram is its key, the index of its first posting and the number
+    // of postings, which are entry numbers in ascending order.
+    private static final int TRIGRAM_SIZE = 8 + 4 + 4;
+
+    static final int DIRECTORY = 1;
+
+    /**
+     * Receives the entries of the index, one at a time.
+     */
+    interface Visitor {
+        void visit(String path, long size, long modified, boolean directory);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final Path root;
+    private final int count;
+    private final int trigramCount;
+    private final long entries;
+    private final long strings;
+    private final long trigrams;
+    private final long postings;
+
+    // Changes from the journal: entries added or updated, and paths
+    // removed together with everything under them.
+    private final TreeMap<String,Entry> added = new TreeMap<>();
+    private final Set<String> removed = new HashSet<>();
+
+    private FileIndex(Path file) throws IOException {
+        channel = FileChannel.open(file, READ);
+        if (channel.size() > Integer.MAX_VALUE)
+            throw new IOException(file + ": index too large to map");
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+            throw new IOException(file + ": not a file index");
+        count = map.getInt(COUNT);
+        trigramCount = map.getInt(TRIGRAM_COUNT);
+        entries = map.getLong(ENTRIES);
+        strings = map.getLong(STRINGS);
+        trigrams = map.getLong(TRIGRAMS);
+        postings = map.getLong(POSTINGS);
+        root = Paths.get(string(ROOT + 4, map.getInt(ROOT)));
+        readJournal(journalFile(file));
+    }
+
+    /**
+     * Opens an index built by {@code build}, applying its journal.
+     */
+    static FileIndex open(Path file) throws IOException {
+        return new FileIndex(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the absolute path of the directory that was indexed.
+     */
+    Path root() {
+        return root;
+    }
+
+    /**
+     * Returns the number of entries in the table, not counting the journal.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the path, relative to the root, that {@code file} would have
+     * in the index, or {@code null} if it is not under the root.
+     */
+    String relativePath(Path file) {
+        Path p = file.toAbsolutePath().normalize();
+        return p.startsWith(root) ? root.relativize(p).toString() : null;
+    }
+
+    /**
+     * Visits every entry under the directory {@code dir}, a path relative
+     * to the root ("" for the root itself), in no particular order.
+     */
+    void forEach(String dir, Visitor visitor) {
+        int from = 0, to = count;
+        String prefix = dir.isEmpty() ? "" : dir + File.separator;
+        if (!prefix.isEmpty()) {
+            // the paths under dir are together in the sorted table
+            from = lowerBound(prefix);
+            to = lowerBound(prefix + Character.MAX_VALUE);
+        }
+        for (int i = from; i < to; i++) {
+            String path = path(i);
+            if (isCurrent(path))
+                visitor.visit(path, size(i), modified(i), isDirectory(i));
+        }
+        for (Entry e : added.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            if (!isRemoved(e.path))
+                visitor.visit(e.path, e.size, e.modified, e.directory);
+        }
+    }
+
+    /**
+     * Visits the entries under {@code dir} whose file names contain
+     * {@code literal}, ignoring case. Uses the trigram index when
+     * {@code literal} is at least three characters long.
+     */
+    void forEachContaining(String dir, String literal, Visitor visitor) {
+        final String lower = literal.toLowerCase(Locale.ROOT);
+        final String prefix = dir.isEmpty() ? "" : dir + File.separator;
+        if (lower.length() < 3) {
+            forEach(dir, new Visitor() {
+                public void visit(String path, long size, long modified, boolean directory) {
+                    if (name(path).toLowerCase(Locale.ROOT).contains(lower))
+                        visitor.visit(path, size, modified, directory);
+                }
+            });
+            return;
+        }
+
+        // candidates are in the postings of every trigram of the literal;
+        // start from the shortest list and check the others by search
+        int[] firsts = new int[lower.length() - 2];
+        int[] counts = new int[firsts.length];
+        int shortest = 0;
+        for (int t = 0; t < firsts.length; t++) {
+            int k = findTrigram(trigram(lower, t));
+            if (k < 0) {
+                firsts = null;
+                break;
+            }
+            long at = trigrams + (long)k * TRIGRAM_SIZE;
+            firsts[t] = map.getInt((int)at + 8);
+            counts[t] = map.getInt((int)at + 12);
+            if (counts[t] < counts[shortest])
+                shortest = t;
+        }
+        if (firsts != null) {
+            next:
+            for (int j = 0; j < counts[shortest]; j++) {
+                int i = posting(firsts[shortest] + j);
+                for (int t = 0; t < firsts.length; t++) {
+                    if (t != shortest && !containsPosting(firsts[t], counts[t], i))
+                        continue next;
+                }
+                String path = path(i);
+                if (path.startsWith(prefix) && isCurrent(path)
+                        && name(path).toLowerCase(Locale.ROOT).contains(lower))
+                    visitor.visit(path, size(i), modified(i), isDirectory(i));
+            }
+        }
+        for (Entry e : added.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            if (!isRemoved(e.path)
+                    && name(e.path).toLowerCase(Locale.ROOT).contains(lower))
+                visitor.visit(e.path, e.size, e.modified, e.directory);
+        }
+    }
+
+    /**
+     * Returns the last element of a path in the index.
+     */
+    static String name(String path) {
+        return path.substring(path.lastIndexOf(File.separatorChar) + 1);
+    }
+
+    // -- the table --
+
+    private String path(int i) {
+        int at = (int)(entries + (long)i * ENTRY_SIZE);
+        return string((int)strings + map.getInt(at), map.getInt(at + 4));
+    }
+
+    private long size(int i) {
+        return map.getLong((int)(entries + (long)i * ENTRY_SIZE) + 8);
+    }
+
+    private long modified(int i) {
+        return map.getLong((int)(entries + (long)i * ENTRY_SIZE) + 16);
+    }
+
+    private boolean isDirectory(int i) {
+        return (map.getInt((int)(entries + (long)i * ENTRY_SIZE) + 24) & DIRECTORY) != 0;
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer b = map.duplicate();
+        b.position(offset);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Returns the first entry whose path is not less than key.
+    private int lowerBound(String key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (path(mid).compareTo(key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private int posting(int k) {
+        return map.getInt((int)(postings + 4L * k));
+    }
+
+    private boolean containsPosting(int first, int n, int entry) {
+        int lo = first, hi = first + n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int p = posting(mid);
+            if (p < entry)
+                lo = mid + 1;
+            else if (p > entry)
+                hi = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    private int findTrigram(long key) {
+        int lo = 0, hi = trigramCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = map.getLong((int)(trigrams + (long)mid * TRIGRAM_SIZE));
+            if (k < key)
+                lo = mid + 1;
+            else if (k > key)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private static long trigram(String lower, int i) {
+        return ((long)lower.charAt(i) << 32) | ((long)lower.charAt(i + 1) << 16)
+            | lower.charAt(i + 2);
+    }
+
+    // -- the journal --
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    static Path journalFile(Path index) {
+        return index.resolveSibling(index.getFileName() + ".journal");
+    }
+
+    // An entry added or updated since the index was built.
+    private static class Entry {
+        final String path;
+        final long size;
+        final long modified;
+        final boolean directory;
+
+        Entry(String path, long size, long modified, boolean directory) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.directory = directory;
+        }
+    }
+
+    private void readJournal(Path journal) throws IOException {
+        if (Files.notExists(journal))
+            return;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(journal)))) {
+            for (;;) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException x) {
+                    break;
+                }
+                String path = in.readUTF();
+                if (op == PUT) {
+                    long size = in.readLong();
+                    long modified = in.readLong();
+                    boolean directory = in.readBoolean();
+                    added.put(path, new Entry(path, size, modified, directory));
+                } else if (path.isEmpty()) {
+                    // the whole tree is recorded again after this
+                    added.clear();
+                    removed.add(path);
+                } else {
+                    // forget what was added under it, and hide the table's
+                    // entries for it and under it
+                    added.remove(path);
+                    added.subMap(path + File.separator,
+                                 path + File.separator + Character.MAX_VALUE).clear();
+                    removed.add(path);
+                }
+            }
+        } catch (EOFException x) {
+            // a record cut short by a crash: ignore it
+        }
+    }
+
+    // Returns true if the table's entry for path has not been changed or
+    // removed since the index was built.
+    private boolean isCurrent(String path) {
+        return !added.containsKey(path) && !isRemoved(path);
+    }
+
+    private boolean isRemoved(String path) {
+        if (removed.isEmpty())
+            return false;
+        for (String p = path; ; p = p.substring(0, p.lastIndexOf(File.separatorChar))) {
+            if (removed.contains(p))
+                return !added.containsKey(path);
+            if (p.lastIndexOf(File.separatorChar) < 0)
+                return removed.contains("") && !added.containsKey(path);
+        }
+    }
+
+    /**
+     * Appends changes to the journal of an index. The methods may be called
+     * from several threads.
+     */
+    static class Journal implements Closeable {
+        private final FileIndex index;
+        private final DataOutputStream out;
+
+        Journal(Path indexFile) throws IOException {
+            index = FileIndex.open(indexFile);
+            out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(journalFile(indexFile), CREATE, APPEND)));
+        }
+
+        Path root() {
+            return index.root();
+        }
+
+        /**
+         * Records that {@code file} was created or modified.
+         */
+        synchronized void put(Path file) throws IOException {
+            String path = index.relativePath(file);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class,
+                                             LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException x) {
+                return; // already gone again
+            }
+            if (path == null || path.isEmpty())
+                return;
+            out.writeByte(PUT);
+            out.writeUTF(path);
+            out.writeLong(attrs.size());
+            out.writeLong(attrs.lastModifiedTime().toMillis());
+            out.writeBoolean(attrs.isDirectory());
+        }
+
+        /**
+         * Records that {@code file} was created, with everything under it.
+         */
+        synchronized void putAll(Path top) throws IOException {
+            Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    put(dir);
+                    return CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    put(file);
+                    return CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return CONTINUE;
+                }
+            });
+        }
+
+        /**
+         * Records that {@code file}, and everything under it, was deleted.
+         */
+        synchronized void remove(Path file) throws IOException {
+            String path = index.relativePath(file);
+            if (path == null || path.isEmpty())
+                return;
+            out.writeByte(REMOVE);
+            out.writeUTF(path);
+        }
+
+        /**
+         * Records the current contents of {@code dir}, replacing whatever
+         * was known about it, as after events for it were lost.
+         */
+        synchronized void replaceAll(Path dir) throws IOException {
+            String path = index.relativePath(dir);
+            if (path == null)
+                return;
+            out.writeByte(REMOVE);
+            out.writeUTF(path);
+            putAll(dir);
+        }
+
+        /**
+         * Writes the changes recorded so far to the journal file.
+         */
+        synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+            index.close();
+        }
+    }
+
+    // -- building --
+
+    /**
+     * Walks the tree under {@code dir} and writes an index of it to
+     * {@code file}, replacing any earlier index and journal. Returns the
+     * number of entries.
+     */
+    static int build(Path dir, Path file) throws IOException {
+        final Path root = dir.toAbsolutePath().normalize();
+        final List<Entry> list = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                add(d, attrs);
+                return CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                add(f, attrs);
+                return CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path f, IOException exc) {
+                System.err.println(exc);
+                return CONTINUE;
+            }
+            private void add(Path p, BasicFileAttributes attrs) {
+                if (!p.equals(root))
+                    list.add(new Entry(root.relativize(p).toString(), attrs.size(),
+                                       attrs.lastModifiedTime().toMillis(),
+                                       attrs.isDirectory()));
+            }
+        });
+        Collections.sort(list, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.path.compareTo(b.path);
+            }
+        });
+
+        // encode the paths and collect the trigrams of every name
+        byte[][] paths = new byte[list.size()][];
+        long stringsSize = 0;
+        TreeMap<Long,List<Integer>> grams = new TreeMap<>();
+        int postingCount = 0;
+        for (int i = 0; i < list.size(); i++) {
+            String path = list.get(i).path;
+            paths[i] = path.getBytes(StandardCharsets.UTF_8);
+            stringsSize += paths[i].length;
+            String lower = name(path).toLowerCase(Locale.ROOT);
+            Set<Long> seen = new HashSet<>();
+            for (int t = 0; t + 3 <= lower.length(); t++) {
+                Long key = trigram(lower, t);
+                if (seen.add(key)) {
+                    List<Integer> p = grams.get(key);
+                    if (p == null)
+                        grams.put(key, p = new ArrayList<>());
+                    p.add(i);
+                    postingCount++;
+                }
+            }
+        }
+
+        byte[] rootBytes = root.toString().getBytes(StandardCharsets.UTF_8);
+        long entriesAt = ROOT + 4 + rootBytes.length;
+        long stringsAt = entriesAt + (long)list.size() * ENTRY_SIZE;
+        long trigramsAt = stringsAt + stringsSize;
+        long postingsAt = trigramsAt + (long)grams.size() * TRIGRAM_SIZE;
+        if (postingsAt + 4L * postingCount > Integer.MAX_VALUE)
+            throw new IOException("tree too large to index");
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(list.size());
+            out.writeInt(grams.size());
+            out.writeLong(entriesAt);
+            out.writeLong(stringsAt);
+            out.writeLong(trigramsAt);
+            out.writeLong(postingsAt);
+            out.writeInt(rootBytes.length);
+            out.write(rootBytes);
+
+            int offset = 0;
+            for (int i = 0; i < list.size(); i++) {
+                Entry e = list.get(i);
+                out.writeInt(offset);
+                out.writeInt(paths[i].length);
+                out.writeLong(e.size);
+                out.writeLong(e.modified);
+                out.writeInt(e.directory ? DIRECTORY : 0);
+                offset += paths[i].length;
+            }
+            for (byte[] p : paths)
+                out.write(p);
+            int first = 0;
+            for (Map.Entry<Long,List<Integer>> g : grams.entrySet()) {
+                out.writeLong(g.getKey());
+                out.writeInt(first);
+                out.writeInt(g.getValue().size());
+                first += g.getValue().size();
+            }
+            for (List<Integer> p : grams.values()) {
+                for (int i : p)
+                    out.writeInt(i);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalFile(file));
+        return list.size();
+    }
+
+    static void usage() {
+        System.err.println("java FileIndex build <dir> <index>");
+        System.err.println("java FileIndex stats <index>");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("build")) {
+            long start = System.nanoTime();
+            int n = build(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.format("Indexed %d entries in %d ms%n", n,
+                              (System.nanoTime() - start) / 1000000);
+        } else if (args.length == 2 && args[0].equals("stats")) {
+            try (FileIndex index = open(Paths.get(args[1]))) {
+                System.out.format("Root: %s%nEntries: %d%nTrigrams: %d%n" +
+                                  "Journal: %d added, %d removed%n",
+                                  index.root, index.count, index.trigramCount,
+                                  index.added.size(), index.removed.size());
+            }
+        } else {
+            usage();
+        }
+    }
+}
@@ -35,6 +35,8 @@ import java.nio.file.attribute.*;
 import static java.nio.file.FileVisitResult.*;
 import static java.nio.file.FileVisitOption.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Sample code that finds files that
@@ -53,6 +55,16 @@ import java.util.*;
  * in quotes, so the shell will not
  * expand any wild cards:
  *     java Find . -name "*.java"
+ *
+ * Several patterns may be given, and
+ * the search limited, in which case
+ * directories are searched in parallel:
+ *     java Find . -name "*.java" -name "*.html" -maxdepth 3 -prune ".git"
+ *
+ * A search may use an index built by
+ * FileIndex instead of walking the
+ * directories:
+ *     java Find src -name "*Copy*" -index tree.idx
  */
 
 public class Find {
@@ -116,23 +128,261 @@ public class Find {
         }
     }
 
+    /**
+     * Finds all files whose names match
+     * any of several patterns, searching
+     * each directory in its own
+     * fork/join task. Matches are
+     * printed as soon as they are
+     * found, so their order varies
+     * from run to run.
+     */
+    public static class ParallelFinder {
+
+        private final NameMatcher matcher;
+        private final NameMatcher prune;
+        private final int maxDepth;
+        private final LongAdder numMatches = new LongAdder();
+
+        ParallelFinder(NameMatcher matcher,
+                NameMatcher prune, int maxDepth) {
+            this.matcher = matcher;
+            this.prune = prune;
+            this.maxDepth = maxDepth;
+        }
+
+        // Searches the tree under start,
+        // which is at depth 0.
+        void find(Path start) throws IOException {
+            Path name = start.getFileName();
+            if (name != null && matches(name)) {
+                numMatches.increment();
+                System.out.println(start);
+            }
+            if (maxDepth > 0 && Files.isDirectory(start))
+                new ForkJoinPool().invoke(
+                    new DirectoryTask(start, 1));
+        }
+
+        // Prints the total number of
+        // matches to standard out.
+        void done() {
+            System.out.println("Matched: "
+                + numMatches.sum());
+        }
+
+        private boolean matches(Path name) {
+            return matcher.matches(name.toString());
+        }
+
+        // Searches the entries of one
+        // directory, which are at depth,
+        // and forks a task for each
+        // subdirectory to be searched.
+        private class DirectoryTask
+            extends RecursiveAction {
+
+            private final Path dir;
+            private final int depth;
+
+            DirectoryTask(Path dir, int depth) {
+                this.dir = dir;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                List<DirectoryTask> subtasks =
+                    new ArrayList<>();
+                try (DirectoryStream<Path> entries =
+                         Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        String name =
+                            entry.getFileName().toString();
+                        if (prune.matches(name))
+                            continue;
+                        if (matcher.matches(name)) {
+                            numMatches.increment();
+                            System.out.println(entry);
+                        }
+                        // No need to look at the
+                        // entry's attributes past
+                        // the maximum depth.
+                        if (depth < maxDepth
+                                && Files.isDirectory(entry,
+                                       LinkOption.NOFOLLOW_LINKS)) {
+                            DirectoryTask task =
+                                new DirectoryTask(entry, depth + 1);
+                            task.fork();
+                            subtasks.add(task);
+                        }
+                    }
+                } catch (IOException | DirectoryIteratorException x) {
+                    System.err.println(x);
+                }
+                for (DirectoryTask task : subtasks)
+                    task.join();
+            }
+        }
+    }
+
+    /**
+     * Finds files in a {@code FileIndex}
+     * rather than in the file system.
+     * When every pattern is a glob with
+     * three or more literal characters,
+     * only the entries that the trigram
+     * index gives for them are examined.
+     */
+    static class IndexedFinder {
+        private final NameMatcher matcher;
+        private final NameMatcher prune;
+        private final int maxDepth;
+        private final List<String> literals = new ArrayList<>();
+        private int numMatches = 0;
+
+        IndexedFinder(NameMatcher matcher, NameMatcher prune,
+                      int maxDepth, List<String> globs,
+                      List<String> regexes) {
+            this.matcher = matcher;
+            this.prune = prune;
+            this.maxDepth = maxDepth;
+            if (regexes.isEmpty()) {
+                for (String glob : globs) {
+                    String literal =
+                        NameMatcher.longestLiteral(glob);
+                    if (literal.length() < 3) {
+                        literals.clear();
+                        break;
+                    }
+                    literals.add(literal);
+                }
+            }
+        }
+
+        void find(FileIndex index, final Path start) {
+            final String dir = index.relativePath(start);
+            if (dir == null) {
+                System.err.println(start +
+                    ": not under " + index.root());
+                return;
+            }
+            final Set<String> seen = new HashSet<>();
+            FileIndex.Visitor visitor = new FileIndex.Visitor() {
+                public void visit(String path, long size,
+                                  long modified, boolean directory) {
+                    String rel = dir.isEmpty() ? path
+                        : path.substring(dir.length() + 1);
+                    if (accept(rel) && (literals.size() < 2
+                                        || seen.add(path))) {
+                        numMatches++;
+                        System.out.println(start.resolve(rel));
+                    }
+                }
+            };
+            if (literals.isEmpty()) {
+                index.forEach(dir, visitor);
+            } else {
+                for (String literal : literals)
+                    index.forEachContaining(dir, literal,
+                                            visitor);
+            }
+        }
+
+        // Applies the patterns, the depth
+        // limit and the pruned names to a
+        // path relative to the start.
+        private boolean accept(String rel) {
+            String[] names = rel.split(
+                java.util.regex.Pattern.quote(File.separator));
+            if (names.length > maxDepth
+                    || !matcher.matches(names[names.length - 1]))
+                return false;
+            for (int i = 0; i < names.length - 1; i++) {
+                if (prune.matches(names[i]))
+                    return false;
+            }
+            return true;
+        }
+
+        void done() {
+            System.out.println("Matched: "
+                + numMatches);
+        }
+    }
+
     static void usage() {
         System.err.println("java Find <path>" +
             " -name \"<glob_pattern>\"");
+        System.err.println("java Find <path>" +
+            " [-name \"<glob_pattern>\"]..." +
+            " [-regex \"<name_regex>\"]..." +
+            " [-maxdepth <n>]" +
+            " [-prune \"<glob_pattern>\"]..." +
+            " [-index <index_file>]");
         System.exit(-1);
     }
 
     public static void main(String[] args)
         throws IOException {
 
-        if (args.length < 3 || !args[1].equals("-name"))
+        if (args.length < 3)
             usage();
 
         Path startingDir = Paths.get(args[0]);
-        String pattern = args[2];
 
-        Finder finder = new Finder(pattern);
-        Files.walkFileTree(startingDir, finder);
+        if (args.length == 3 && args[1].equals("-name")) {
+            String pattern = args[2];
+
+            Finder finder = new Finder(pattern);
+            Files.walkFileTree(startingDir, finder);
+            finder.done();
+            return;
+        }
+
+        // Several patterns, or limits on
+        // the search: use ParallelFinder.
+        List<String> globs = new ArrayList<>();
+        List<String> regexes = new ArrayList<>();
+        List<String> prunes = new ArrayList<>();
+        Path indexFile = null;
+        int maxDepth = Integer.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length)
+                usage();
+            switch (args[i]) {
+                case "-name": globs.add(args[i + 1]); break;
+                case "-regex": regexes.add(args[i + 1]); break;
+                case "-prune": prunes.add(args[i + 1]); break;
+                case "-index":
+                    indexFile = Paths.get(args[i + 1]);
+                    break;
+                case "-maxdepth":
+                    maxDepth = Integer.parseInt(args[i + 1]);
+                    break;
+                default: usage();
+            }
+        }
+
+        NameMatcher matcher = new NameMatcher(globs, regexes);
+        if (matcher.isEmpty())
+            usage();
+        NameMatcher prune = new NameMatcher(prunes,
+            Collections.<String>emptyList());
+
+        if (indexFile != null) {
+            IndexedFinder finder = new IndexedFinder(matcher,
+                prune, maxDepth, globs, regexes);
+            try (FileIndex index = FileIndex.open(indexFile)) {
+                finder.find(index, startingDir);
+            }
+            finder.done();
+            return;
+        }
+
+        ParallelFinder finder =
+            new ParallelFinder(matcher, prune, maxDepth);
+        finder.find(startingDir);
         finder.done();
     }
 }
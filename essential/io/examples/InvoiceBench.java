@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.*;
+import java.util.Random;
+
+/**
+ * Compares the three invoice file formats: the records of DataStreams, the
+ * serialized BigDecimals of ObjectStreams, and the columns of
+ * ColumnarInvoices. For each it writes the same randomly generated
+ * invoices, then reads them back adding up the total, and prints the file
+ * size and how long writing and reading took.
+ *
+ * Each format is written and read several times and the fastest time is
+ * printed, so that the JIT compiler and the file cache are warm.
+ *
+ * Usage:
+ *     java InvoiceBench [records]
+ */
+public class InvoiceBench {
+
+    static final int ROUNDS = 5;
+
+    interface Format {
+        void write(Path file) throws IOException;
+        BigDecimal read(Path file) throws IOException;
+    }
+
+    static long[] prices;      // unscaled, at scale 2
+    static int[] units;
+    static String[] descs;
+
+    static void generate(int n) {
+        Random random = new Random(42);
+        String[] catalog = new String[1000];
+        for (int i = 0; i < catalog.length; i++)
+            catalog[i] = DataStreams.descs[i % DataStreams.descs.length] + " #" + i;
+        prices = new long[n];
+        units = new int[n];
+        descs = new String[n];
+        for (int i = 0; i < n; i++) {
+            prices[i] = 99 + random.nextInt(20000);
+            units[i] = 1 + random.nextInt(100);
+            descs[i] = catalog[random.nextInt(catalog.length)];
+        }
+    }
+
+    static final Format DATA = new Format() {
+        public void write(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(file)))) {
+                for (int i = 0; i < prices.length; i++) {
+                    out.writeDouble(prices[i] / 100.0);
+                    out.writeInt(units[i]);
+                    out.writeUTF(descs[i]);
+                }
+            }
+        }
+
+        public BigDecimal read(Path file) throws IOException {
+            double total = 0.0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     Files.newInputStream(file)))) {
+                try {
+                    while (true) {
+                        double price = in.readDouble();
+                        int unit = in.readInt();
+                        in.readUTF();
+                        total += unit * price;
+                    }
+                } catch (EOFException e) { }
+            }
+            return new BigDecimal(total).setScale(2, RoundingMode.HALF_EVEN);
+        }
+    };
+
+    static final Format OBJECT = new Format() {
+        public void write(Path file) throws IOException {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(file)))) {
+                for (int i = 0; i < prices.length; i++) {
+                    out.writeObject(BigDecimal.valueOf(prices[i], 2));
+                    out.writeInt(units[i]);
+                    out.writeUTF(descs[i]);
+                }
+            }
+        }
+
+        public BigDecimal read(Path file) throws IOException {
+            BigDecimal total = new BigDecimal(0);
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                     Files.newInputStream(file)))) {
+                try {
+                    while (true) {
+                        BigDecimal price = (BigDecimal)in.readObject();
+                        int unit = in.readInt();
+                        in.readUTF();
+                        total = total.add(price.multiply(new BigDecimal(unit)));
+                    }
+                } catch (EOFException e) { }
+            } catch (ClassNotFoundException x) {
+                throw new IOException(x);
+            }
+            return total;
+        }
+    };
+
+    static final Format COLUMNAR = new Format() {
+        public void write(Path file) throws IOException {
+            try (ColumnarInvoices.Writer out = new ColumnarInvoices.Writer(file, 2)) {
+                for (int i = 0; i < prices.length; i++)
+                    out.add(prices[i], units[i], descs[i]);
+            }
+        }
+
+        public BigDecimal read(Path file) throws IOException {
+            try (ColumnarInvoices.Reader in = new ColumnarInvoices.Reader(file)) {
+                return in.total();
+            }
+        }
+    };
+
+    public static void main(String[] args) throws IOException {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        generate(n);
+
+        String[] names = { "DataStreams", "ObjectStreams", "ColumnarInvoices" };
+        Format[] formats = { DATA, OBJECT, COLUMNAR };
+        System.out.format("%d invoices%n%-18s %12s %10s %10s  %s%n", n,
+                          "format", "bytes", "write ms", "read ms", "total");
+        for (int f = 0; f < formats.length; f++) {
+            Path file = Files.createTempFile("invoices", ".dat");
+            try {
+                long write = Long.MAX_VALUE, read = Long.MAX_VALUE;
+                BigDecimal total = null;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long start = System.nanoTime();
+                    formats[f].write(file);
+                    long middle = System.nanoTime();
+                    total = formats[f].read(file);
+                    long end = System.nanoTime();
+                    write = Math.min(write, middle - start);
+                    read = Math.min(read, end - middle);
+                }
+                System.out.format("%-18s %12d %10.1f %10.1f  %s%n", names[f], Files.size(file),
+                                  write / 1e6, read / 1e6, total);
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+}
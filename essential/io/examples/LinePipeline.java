@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import static java.nio.file.StandardOpenOption.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+/**
+ * Copies a text file line by line through a transform, using several
+ * threads, without decoding the file or making a String of each line.
+ *
+ * The input is memory-mapped in large windows, and each window is cut into
+ * chunks at line boundaries. Each chunk is handed to a thread that finds
+ * the lines in it by looking at the bytes, eight at a time, for newlines,
+ * and passes each line to the transform as a {@code CharSequence} view of
+ * the mapped bytes. What the transform appends for the chunk is collected
+ * in a buffer and written to the output through one direct buffer, in the
+ * order of the input or, if the transform does not care about order, as
+ * soon as each chunk is done. When the output is not in order, a last line
+ * without a newline is given one.
+ *
+ * The characters of a line are its bytes taken as ISO-8859-1, so the bytes
+ * of a file in any encoding come through a copy unchanged and ASCII text is
+ * seen as it is.
+ *
+ * Usage:
+ *     java LinePipeline [-unordered] [-threads <n>] [-upper | -grep <text>] <in> <out>
+ */
+public class LinePipeline {
+
+    /**
+     * Changes or drops a line.
+     */
+    public interface Transform {
+        /**
+         * Appends the new form of {@code line}, which does not include its
+         * line terminator, to {@code out}, and returns {@code true}; or
+         * returns {@code false} to leave the line out. The line is only
+         * valid until this method returns.
+         */
+        boolean apply(CharSequence line, Output out);
+    }
+
+    /**
+     * The transform that copies each line as it is.
+     */
+    public static final Transform COPY = new Transform() {
+        public boolean apply(CharSequence line, Output out) {
+            out.append(line);
+            return true;
+        }
+    };
+
+    static final int WINDOW_SIZE = 256 << 20;
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private final Transform transform;
+    private final int threads;
+    private final boolean ordered;
+
+    // Buffers that chunks collect their output in, for reuse.
+    private final ConcurrentLinkedQueue<Output> outputs = new ConcurrentLinkedQueue<>();
+
+    private long lines;
+
+    public LinePipeline(Transform transform, int threads, boolean ordered) {
+        this.transform = transform;
+        this.threads = threads;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Transforms {@code in} into {@code out}, and returns the number of
+     * lines read.
+     */
+    public long run(Path in, Path out) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // only needed to find the first chunk to finish when unordered;
+        // when ordered, its queue would keep every finished chunk
+        CompletionService<Output> done =
+            ordered ? null : new ExecutorCompletionService<Output>(pool);
+        Deque<Future<Output>> inFlight = new ArrayDeque<>();
+        int maxInFlight = 2 * threads;
+        lines = 0;
+
+        try (FileChannel input = FileChannel.open(in, READ);
+             FileChannel output = FileChannel.open(out, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            Writer writer = new Writer(output);
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int)Math.min(WINDOW_SIZE, size - position);
+                boolean last = (position + length == size);
+                MappedByteBuffer window =
+                    input.map(FileChannel.MapMode.READ_ONLY, position, length);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+
+                // cut the window into chunks that end with a line; a line
+                // that runs past the window starts the next window
+                int start = 0;
+                while (start < length) {
+                    int end = Math.min(start + CHUNK_SIZE, length);
+                    if (end < length || !last) {
+                        int nl = nextNewline(window, end - 1, length);
+                        if (nl >= 0)
+                            end = nl + 1;
+                        else if (!last)
+                            break;
+                        else
+                            end = length;
+                    }
+                    Chunk chunk = new Chunk(window, start, end);
+                    inFlight.add(ordered ? pool.submit(chunk) : done.submit(chunk));
+                    if (inFlight.size() >= maxInFlight)
+                        writer.write(next(inFlight, done));
+                    start = end;
+                }
+                if (start == 0)
+                    throw new IOException("Line longer than " + WINDOW_SIZE
+                                          + " bytes at " + position);
+                position += start;
+            }
+            while (!inFlight.isEmpty())
+                writer.write(next(inFlight, done));
+            writer.flush();
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        return lines;
+    }
+
+    // Returns the next chunk to write: the oldest when the output is
+    // ordered, otherwise the first to finish.
+    private Output next(Deque<Future<Output>> inFlight, CompletionService<Output> done)
+        throws InterruptedException, ExecutionException
+    {
+        if (ordered)
+            return inFlight.poll().get();
+        Future<Output> f = done.take();
+        inFlight.remove(f);
+        return f.get();
+    }
+
+    /**
+     * Returns the index of the first newline in {@code b} at or after
+     * {@code from} and before {@code to}, or -1 if there is none. Reads a
+     * long at a time, looking for a zero byte in the long XORed with
+     * newlines; {@code b} must be little-endian, so that the lowest zero
+     * byte found is the first in the buffer.
+     */
+    static int nextNewline(ByteBuffer b, int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long x = b.getLong(i) ^ 0x0a0a0a0a0a0a0a0aL;
+            long found = (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+            if (found != 0)
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < to; i++) {
+            if (b.get(i) == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A line of the input, as characters that are its bytes taken as
+     * ISO-8859-1. The same view is moved from line to line.
+     */
+    static class Line implements CharSequence {
+        final ByteBuffer bytes;
+        int start;
+        int length;
+
+        Line(ByteBuffer bytes, int start, int length) {
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            return (char)(bytes.get(start + index) & 0xff);
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || from > to || to > length)
+                throw new IndexOutOfBoundsException(from + ", " + to);
+            return new Line(bytes, start + from, to - from);
+        }
+
+        public String toString() {
+            byte[] b = new byte[length];
+            ByteBuffer view = bytes.duplicate();
+            view.position(start);
+            view.get(b);
+            return new String(b, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Collects the output of a chunk. Characters up to U+00FF are written
+     * as one byte, so that the characters of a line come out as the bytes
+     * they were; other characters are written in UTF-8.
+     */
+    public static class Output {
+        private byte[] buf = new byte[CHUNK_SIZE + CHUNK_SIZE / 4];
+        private int count;
+
+        public Output append(CharSequence cs) {
+            if (cs instanceof Line) {
+                // copy the bytes straight from the mapped file
+                Line line = (Line)cs;
+                ensure(line.length);
+                ByteBuffer view = line.bytes.duplicate();
+                view.position(line.start);
+                view.get(buf, count, line.length);
+                count += line.length;
+            } else {
+                for (int i = 0; i < cs.length(); i++)
+                    append(cs.charAt(i));
+            }
+            return this;
+        }
+
+        public Output append(char c) {
+            if (c <= 0xff) {
+                ensure(1);
+                buf[count++] = (byte)c;
+            } else {
+                byte[] b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                ensure(b.length);
+                System.arraycopy(b, 0, buf, count, b.length);
+                count += b.length;
+            }
+            return this;
+        }
+
+        private void ensure(int n) {
+            if (count + n > buf.length) {
+                byte[] b = new byte[Math.max(buf.length * 2, count + n)];
+                System.arraycopy(buf, 0, b, 0, count);
+                buf = b;
+            }
+        }
+    }
+
+    // Transforms the lines between two positions of a window.
+    private class Chunk implements Callable<Output> {
+        private final ByteBuffer window;
+        private final int start;
+        private final int end;
+
+        Chunk(ByteBuffer window, int start, int end) {
+            this.window = window;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Output call() {
+            Output out = outputs.poll();
+            if (out == null)
+                out = new Output();
+            out.count = 0;
+
+            ByteBuffer bytes = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            Line line = new Line(bytes, 0, 0);
+            int n = 0;
+            for (int i = start; i < end; n++) {
+                int nl = nextNewline(bytes, i, end);
+                int next = (nl < 0) ? end : nl + 1;
+                // the terminator, "\n" or "\r\n", is not part of the line
+                int stop = (nl < 0) ? end : (nl > i && bytes.get(nl - 1) == '\r') ? nl - 1 : nl;
+                line.start = i;
+                line.length = stop - i;
+                int mark = out.count;
+                if (transform.apply(line, out)) {
+                    for (int t = stop; t < next; t++)
+                        out.append((char)(bytes.get(t) & 0xff));
+                    // a last line without a newline may not be last
+                    if (nl < 0 && !ordered)
+                        out.append('\n');
+                } else {
+                    out.count = mark;
+                }
+                i = next;
+            }
+            synchronized (LinePipeline.this) {
+                lines += n;
+            }
+            return out;
+        }
+    }
+
+    // Writes the output of chunks to a channel through one direct buffer.
+    private class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(Output out) throws IOException {
+            for (int off = 0; off < out.count; ) {
+                int n = Math.min(buffer.remaining(), out.count - off);
+                buffer.put(out.buf, off, n);
+                off += n;
+                if (!buffer.hasRemaining())
+                    flush();
+            }
+            outputs.add(out);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    static void usage() {
+        System.err.println("java LinePipeline [-unordered] [-threads <n>]" +
+                           " [-upper | -grep <text>] <in> <out>");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean ordered = true;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Transform transform = COPY;
+        int argi = 0;
+        for (; argi < args.length && args[argi].startsWith("-"); argi++) {
+            switch (args[argi]) {
+                case "-unordered":
+                    ordered = false;
+                    break;
+                case "-threads":
+                    if (++argi == args.length)
+                        usage();
+                    threads = Integer.parseInt(args[argi]);
+                    break;
+                case "-upper":
+                    transform = new Transform() {
+                        public boolean apply(CharSequence line, Output out) {
+                            for (int i = 0; i < line.length(); i++) {
+                                char c = line.charAt(i);
+                                out.append((c >= 'a' && c <= 'z') ? (char)(c - 32) : c);
+                            }
+                            return true;
+                        }
+                    };
+                    break;
+                case "-grep":
+                    if (++argi == args.length)
+                        usage();
+                    final String text = args[argi];
+                    transform = new Transform() {
+                        public boolean apply(CharSequence line, Output out) {
+                            if (!contains(line, text))
+                                return false;
+                            out.append(line);
+                            return true;
+                        }
+                    };
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (args.length - argi != 2 || threads < 1)
+            usage();
+
+        long start = System.nanoTime();
+        long n = new LinePipeline(transform, threads, ordered)
+            .run(Paths.get(args[argi]), Paths.get(args[argi + 1]));
+        long millis = Math.max((System.nanoTime() - start) / 1000000, 1);
+        long bytes = Files.size(Paths.get(args[argi]));
+        System.out.format("%d lines, %d bytes in %d ms (%.1f MB/s)%n",
+                          n, bytes, millis, bytes / 1048576.0 / millis * 1000);
+    }
+
+    static boolean contains(CharSequence s, String text) {
+        int last = s.length() - text.length();
+        outer:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < text.length(); j++) {
+                if (s.charAt(i + j) != text.charAt(j))
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2009, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches file names against any number of glob and regular expression
+ * patterns at once.
+ *
+ * The common kinds of glob are answered without a regular expression:
+ * exact names and "*.ext" patterns are looked up in hash sets, and
+ * "prefix*" and "*suffix" patterns are checked with startsWith and
+ * endsWith. All remaining patterns are compiled into a single regular
+ * expression, so a name is scanned once however many patterns there are,
+ * and its answer is remembered for names that turn up again.
+ */
+
+public class NameMatcher {
+
+    // Most names whose regular expression answer is remembered.
+    private static final int MEMO_LIMIT = 100000;
+
+    private final Set<String> names = new HashSet<>();
+    private final Set<String> extensions = new HashSet<>();
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<String> suffixes = new ArrayList<>();
+    private final Pattern combined;
+    private final Map<String,Boolean> memo = new ConcurrentHashMap<>();
+
+    NameMatcher(List<String> globs, List<String> regexes) {
+        List<String> alternatives = new ArrayList<>();
+        for (String glob : globs) {
+            String head = glob.isEmpty() ? glob : glob.substring(1);
+            String tail = glob.isEmpty() ? glob : glob.substring(0, glob.length() - 1);
+            if (isLiteral(glob)) {
+                names.add(glob);
+            } else if (glob.startsWith("*") && isLiteral(head)) {
+                if (head.startsWith(".") && head.indexOf('.', 1) < 0)
+                    extensions.add(head.substring(1));
+                else
+                    suffixes.add(head);
+            } else if (glob.endsWith("*") && isLiteral(tail)) {
+                prefixes.add(tail);
+            } else {
+                alternatives.add(globToRegex(glob));
+            }
+        }
+        alternatives.addAll(regexes);
+
+        StringBuilder sb = new StringBuilder();
+        for (String regex : alternatives) {
+            if (sb.length() > 0)
+                sb.append('|');
+            sb.append("(?:").append(regex).append(')');
+        }
+        combined = alternatives.isEmpty() ? null : Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Returns {@code true} if no pattern was given.
+     */
+    boolean isEmpty() {
+        return names.isEmpty() && extensions.isEmpty() && prefixes.isEmpty()
+            && suffixes.isEmpty() && combined == null;
+    }
+
+    /**
+     * Returns {@code true} if {@code name} matches any of the patterns.
+     */
+    boolean matches(String name) {
+        if (names.contains(name))
+            return true;
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && extensions.contains(name.substring(dot + 1)))
+            return true;
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix))
+                return true;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix))
+                return true;
+        }
+        if (combined == null)
+            return false;
+
+        Boolean known = memo.get(name);
+        if (known == null) {
+            known = combined.matcher(name).matches();
+            if (memo.size() < MEMO_LIMIT)
+                memo.put(name, known);
+        }
+        return known;
+    }
+
+    private static boolean isLiteral(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[{\\".indexOf(glob.charAt(i)) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the longest run of characters that every name matching
+     * {@code glob} must contain, or an empty string if there is none.
+     */
+    static String longestLiteral(String glob) {
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i <= glob.length(); i++) {
+            char c = i < glob.length() ? glob.charAt(i) : '*';
+            if (c == '\\' && i + 1 < glob.length()) {
+                run.append(glob.charAt(++i));
+                continue;
+            }
+            if ("*?[{\\".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            }
+            if (run.length() > longest.length())
+                longest = run.toString();
+            run.setLength(0);
+            // skip a bracket expression or group, which need not appear
+            if (c == '[' || c == '{') {
+                int end = glob.indexOf(c == '[' ? ']' : '}', i + 1);
+                i = end < 0 ? glob.length() : end;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Translates a glob, as accepted by {@code PathMatcher}, into a regular
+     * expression that matches the same file names.
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '\\':
+                    if (++i < glob.length())
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0)
+                        throw new IllegalArgumentException("Missing ']' in glob: " + glob);
+                    String set = glob.substring(i + 1, end).replace("\\", "\\\\")
+                                     .replace("[", "\\[").replace("&", "\\&");
+                    if (set.startsWith("!"))
+                        set = "^" + set.substring(1);
+                    else if (set.startsWith("^"))
+                        set = "\\" + set;
+                    regex.append('[').append(set).append(']');
+                    i = end;
+                    break;
+                case '{':
+                    if (inGroup)
+                        throw new IllegalArgumentException("Nested '{' in glob: " + glob);
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    if ("().+|^$@%".indexOf(c) >= 0)
+                        regex.append('\\');
+                    regex.append(c);
+            }
+        }
+        if (inGroup)
+            throw new IllegalArgumentException("Missing '}' in glob: " + glob);
+        return regex.toString();
+    }
+}
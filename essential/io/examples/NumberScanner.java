@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds and sums the numbers in a file as {@code Scanner.nextDouble} would
+ * with {@code Locale.US}, working on the file's bytes rather than on
+ * characters and regular expressions.
+ *
+ * Tokens are separated by ASCII white space. A token that is a decimal
+ * number, with an optional sign, commas between groups of three digits,
+ * an optional fraction and an optional exponent, is converted without
+ * allocating anything: up to 18 significant digits are gathered in a long,
+ * and when the digits and the power of ten are both exactly representable
+ * as doubles, one multiplication or division gives the correctly rounded
+ * result. Longer or larger numbers go to {@code Double.parseDouble}. Tokens
+ * that could be numbers of other kinds, such as hexadecimal numbers, NaN
+ * and Infinity, or that contain non-ASCII bytes, are given to a Scanner, so
+ * that every answer is the one Scanner would give.
+ */
+public class NumberScanner {
+
+    /**
+     * Receives the numbers found, in order.
+     */
+    public interface Sink {
+        void accept(double value);
+    }
+
+    // 10^0 .. 10^22 are exactly representable as doubles.
+    private static final double[] POWERS = new double[23];
+    static {
+        double p = 1;
+        for (int i = 0; i < POWERS.length; i++, p *= 10)
+            POWERS[i] = p;
+    }
+
+    static boolean isWhitespace(int b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1c && b <= 0x1f);
+    }
+
+    /**
+     * Passes the numbers in the bytes between {@code from} and {@code to}
+     * to {@code sink}. The range should start and end at token boundaries.
+     */
+    public static void scan(ByteBuffer b, int from, int to, Sink sink) {
+        int i = from;
+        while (i < to) {
+            while (i < to && isWhitespace(b.get(i)))
+                i++;
+            int start = i;
+            int bits = 0;
+            for (int c; i < to && !isWhitespace(c = b.get(i)); i++)
+                bits |= c;
+            if (start == i)
+                continue;
+            // non-ASCII bytes may be digits or white space to a Scanner
+            if (bits < 0)
+                scanner(b, start, i, sink);
+            else
+                token(b, start, i, sink);
+        }
+    }
+
+    // Passes the number in one token of ASCII bytes, if it is one.
+    private static void token(ByteBuffer b, int start, int end, Sink sink) {
+        int i = start;
+        boolean negative = false;
+        int c = b.get(i);
+        if (c == '-' || c == '+') {
+            negative = (c == '-');
+            if (++i == end)
+                return;
+        }
+
+        long mantissa = 0;
+        int digits = 0;        // significant digits in mantissa
+        int dropped = 0;       // integer digits that did not fit
+        int exponent = 0;
+        boolean any = false;   // any digits at all
+
+        // the integer part: plain digits, or groups of three after a first
+        // group of one to three digits that does not start with zero
+        int groupStart = i;
+        int groupLength = 0;
+        boolean grouped = false;
+        for (; i < end; i++) {
+            c = b.get(i);
+            if (c >= '0' && c <= '9') {
+                groupLength++;
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0)
+                        digits++;
+                } else {
+                    dropped++;
+                }
+            } else if (c == ',') {
+                if (grouped ? groupLength != 3
+                            : (groupLength < 1 || groupLength > 3 || b.get(groupStart) == '0'))
+                    return;
+                grouped = true;
+                groupLength = 0;
+            } else {
+                break;
+            }
+        }
+        if (grouped && groupLength != 3)
+            return;
+        exponent += dropped;
+
+        // the fraction
+        if (i < end && b.get(i) == '.') {
+            i++;
+            for (; i < end; i++) {
+                c = b.get(i);
+                if (c < '0' || c > '9')
+                    break;
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0)
+                        digits++;
+                    exponent--;
+                } else {
+                    dropped++;
+                }
+            }
+        }
+        if (!any) {
+            maybeOther(b, start, end, sink);
+            return;
+        }
+
+        // the exponent
+        if (i < end && (b.get(i) == 'e' || b.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (b.get(i) == '-' || b.get(i) == '+'))
+                negativeExponent = (b.get(i++) == '-');
+            int e = 0;
+            int expStart = i;
+            for (; i < end; i++) {
+                c = b.get(i);
+                if (c < '0' || c > '9')
+                    break;
+                if (e < 100000)
+                    e = e * 10 + (c - '0');
+            }
+            if (i == expStart)
+                return;
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != end) {
+            maybeOther(b, start, end, sink);
+            return;
+        }
+
+        double value;
+        if (dropped == 0 && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            value = (exponent >= 0) ? mantissa * POWERS[exponent]
+                                    : mantissa / POWERS[-exponent];
+        } else {
+            value = Double.parseDouble(withoutCommas(b, start, end));
+            negative = false;
+        }
+        sink.accept(negative ? -value : value);
+    }
+
+    private static String withoutCommas(ByteBuffer b, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            if (b.get(i) != ',')
+                sb.append((char)b.get(i));
+        }
+        return sb.toString();
+    }
+
+    // Gives a token that is not a plain decimal number to a Scanner, if it
+    // might be some other kind of number.
+    private static void maybeOther(ByteBuffer b, int start, int end, Sink sink) {
+        int i = start;
+        if (b.get(i) == '-' || b.get(i) == '+')
+            i++;
+        boolean possible = i < end && (b.get(i) == 'N' || b.get(i) == 'I'
+            || (b.get(i) == '0' && i + 1 < end && (b.get(i + 1) | 0x20) == 'x'));
+        if (possible)
+            scanner(b, start, end, sink);
+    }
+
+    // Passes the numbers a Scanner finds in the bytes of a token.
+    private static void scanner(ByteBuffer b, int start, int end, Sink sink) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = b.duplicate();
+        view.limit(end).position(start);
+        view.get(bytes);
+        try (Scanner s = new Scanner(new String(bytes, StandardCharsets.UTF_8))) {
+            s.useLocale(Locale.US);
+            while (s.hasNext()) {
+                if (s.hasNextDouble())
+                    sink.accept(s.nextDouble());
+                else
+                    s.next();
+            }
+        }
+    }
+
+    /**
+     * Adds numbers with Kahan's compensated summation, which carries the
+     * low-order bits that each addition loses into the next.
+     */
+    public static class KahanSum implements Sink {
+        private double sum;
+        private double compensation;
+
+        public void accept(double value) {
+            double y = value - compensation;
+            double t = sum + y;
+            compensation = (t - sum) - y;
+            sum = t;
+        }
+
+        public void add(KahanSum other) {
+            accept(other.sum);
+            accept(-other.compensation);
+        }
+
+        public double sum() {
+            return sum;
+        }
+    }
+
+    static final int WINDOW_SIZE = 256 << 20;
+    static final int CHUNK_SIZE = 4 << 20;
+
+    /**
+     * Returns the sum of the numbers in {@code file}, adding them in order
+     * as Scanner's users do.
+     */
+    public static double sum(Path file) throws IOException {
+        final double[] sum = new double[1];
+        Sink sink = new Sink() {
+            public void accept(double value) {
+                sum[0] += value;
+            }
+        };
+        try (FileChannel ch = FileChannel.open(file)) {
+            long size = ch.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int)Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (position + length == size) ? length : lastBoundary(window, length);
+                scan(window, 0, end, sink);
+                position += end;
+            }
+        }
+        return sum[0];
+    }
+
+    /**
+     * Returns the sum of the numbers in {@code file}, scanning chunks of it
+     * in parallel and adding with compensation within and across chunks.
+     */
+    public static double parallelSum(Path file, int threads)
+        throws IOException, InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<KahanSum>> parts = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file)) {
+            long size = ch.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int)Math.min(WINDOW_SIZE, size - position);
+                final MappedByteBuffer window =
+                    ch.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int limit = (position + length == size) ? length : lastBoundary(window, length);
+                for (int start = 0; start < limit; ) {
+                    // end each chunk at white space, so no token is split
+                    int end = Math.min(start + CHUNK_SIZE, limit);
+                    while (end < limit && !isWhitespace(window.get(end)))
+                        end++;
+                    final int from = start, to = end;
+                    parts.add(pool.submit(new Callable<KahanSum>() {
+                        public KahanSum call() {
+                            KahanSum sum = new KahanSum();
+                            scan(window, from, to, sum);
+                            return sum;
+                        }
+                    }));
+                    start = end;
+                }
+                position += limit;
+            }
+
+            KahanSum total = new KahanSum();
+            for (Future<KahanSum> part : parts)
+                total.add(part.get());
+            return total.sum();
+        } catch (ExecutionException x) {
+            throw new IOException(x.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Returns the position after the last white space in a window, where
+    // the next window starts.
+    private static int lastBoundary(ByteBuffer window, int length) throws IOException {
+        int i = length;
+        while (i > 0 && !isWhitespace(window.get(i - 1)))
+            i--;
+        if (i == 0)
+            throw new IOException("Token longer than " + WINDOW_SIZE + " bytes");
+        return i;
+    }
+}
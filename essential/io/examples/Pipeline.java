@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Passes lines of text through a series of stages, each running in its own
+ * thread, as RhymingWords does with piped streams. Lines go from stage to
+ * stage in batches over bounded queues, so a thread hands over many lines
+ * at a time and a fast stage waits only when the next one falls behind.
+ *
+ * Each stage counts the lines it takes and gives, the time it spends
+ * working, and how full its input queue is, for {@link #report}.
+ */
+public class Pipeline {
+
+    static final int DEFAULT_BATCH_SIZE = 1024;
+    static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    // Marks the end of the lines on a queue.
+    private static final List<String> END = Collections.emptyList();
+
+    /**
+     * Receives the lines a stage gives.
+     */
+    public interface Emitter {
+        void emit(String line) throws IOException, InterruptedException;
+    }
+
+    /**
+     * A step of a pipeline. {@code process} is called with each batch of
+     * lines in turn, and {@code finish} when there are no more.
+     */
+    public static abstract class Stage {
+        private final String name;
+
+        protected Stage(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public abstract void process(List<String> batch, Emitter out)
+            throws IOException, InterruptedException;
+
+        public void finish(Emitter out) throws IOException, InterruptedException {
+        }
+    }
+
+    /**
+     * Returns a stage that gives {@code f} of each line.
+     */
+    public static Stage map(String name, final UnaryOperator<String> f) {
+        return new Stage(name) {
+            public void process(List<String> batch, Emitter out)
+                throws IOException, InterruptedException
+            {
+                for (String line : batch)
+                    out.emit(f.apply(line));
+            }
+        };
+    }
+
+    /**
+     * A stage that gives its lines in order, sorting those that fit in
+     * memory and writing them out to a temporary file as a sorted run when
+     * more arrive, then merging the runs. No more than MAX_FAN_IN runs are
+     * open at once; when there are more, they are merged into longer runs
+     * first, MAX_FAN_IN at a time.
+     */
+    public static class SortStage extends Stage {
+        static final int MAX_FAN_IN = 64;
+
+        private final int maxInMemory;
+        private final List<String> lines = new ArrayList<>();
+        private final List<Path> runs = new ArrayList<>();
+
+        public SortStage(String name, int maxInMemory) {
+            super(name);
+            this.maxInMemory = maxInMemory;
+        }
+
+        public void process(List<String> batch, Emitter out) throws IOException {
+            lines.addAll(batch);
+            if (lines.size() >= maxInMemory)
+                spill();
+        }
+
+        private void spill() throws IOException {
+            Collections.sort(lines);
+            Path run = newRun();
+            try (BufferedWriter w = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    w.write(line);
+                    w.newLine();
+                }
+            }
+            lines.clear();
+        }
+
+        // Returns a new temporary file for a run, added to the runs so that
+        // it is deleted with them.
+        private Path newRun() throws IOException {
+            Path run = Files.createTempFile("run", ".txt");
+            run.toFile().deleteOnExit();
+            runs.add(run);
+            return run;
+        }
+
+        // The next line of a run, and where the rest of the run comes from.
+        private static class Cursor implements Comparable<Cursor> {
+            String line;
+            final Iterator<String> lines;
+            final BufferedReader reader;
+
+            Cursor(Iterator<String> lines, BufferedReader reader) {
+                this.lines = lines;
+                this.reader = reader;
+            }
+
+            boolean advance() throws IOException {
+                line = (reader != null) ? reader.readLine()
+                                        : lines.hasNext() ? lines.next() : null;
+                return line != null;
+            }
+
+            public int compareTo(Cursor other) {
+                return line.compareTo(other.line);
+            }
+        }
+
+        public void finish(Emitter out) throws IOException, InterruptedException {
+            Collections.sort(lines);
+            try {
+                // merge the oldest runs into one until the rest can be
+                // merged with what is left in memory
+                while (runs.size() >= MAX_FAN_IN) {
+                    List<Path> oldest = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                    Path run = newRun();
+                    try (final BufferedWriter w =
+                             Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                        merge(oldest, null, new Emitter() {
+                            public void emit(String line) throws IOException {
+                                w.write(line);
+                                w.newLine();
+                            }
+                        });
+                    }
+                    runs.subList(0, MAX_FAN_IN).clear();
+                    for (Path p : oldest)
+                        Files.deleteIfExists(p);
+                }
+                merge(runs, lines.iterator(), out);
+            } finally {
+                for (Path run : runs)
+                    Files.deleteIfExists(run);
+                runs.clear();
+                lines.clear();
+            }
+        }
+
+        // Merges the given runs, and the sorted lines of memory if it is
+        // not null, k ways at once.
+        private static void merge(List<Path> runs, Iterator<String> memory, Emitter out)
+            throws IOException, InterruptedException
+        {
+            PriorityQueue<Cursor> heads = new PriorityQueue<>();
+            List<BufferedReader> readers = new ArrayList<>();
+            try {
+                if (memory != null) {
+                    Cursor c = new Cursor(memory, null);
+                    if (c.advance())
+                        heads.add(c);
+                }
+                for (Path run : runs) {
+                    BufferedReader r = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+                    readers.add(r);
+                    Cursor c = new Cursor(null, r);
+                    if (c.advance())
+                        heads.add(c);
+                }
+                while (!heads.isEmpty()) {
+                    Cursor c = heads.poll();
+                    out.emit(c.line);
+                    if (c.advance())
+                        heads.add(c);
+                }
+            } finally {
+                for (BufferedReader r : readers)
+                    r.close();
+            }
+        }
+
+        int runs() {
+            return runs.size();
+        }
+    }
+
+    // A stage with its input queue, its thread's counters, and the batch
+    // it is filling for the next stage.
+    private class Step implements Emitter, Runnable {
+        final Stage stage;
+        final BlockingQueue<List<String>> in;
+        BlockingQueue<List<String>> out;
+        List<String> batch = new ArrayList<>(batchSize);
+
+        long linesIn, linesOut, batchesIn;
+        long occupancy, maxOccupancy;
+        long busyNanos, startNanos, endNanos;
+
+        Step(Stage stage) {
+            this.stage = stage;
+            this.in = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        public void emit(String line) throws InterruptedException {
+            linesOut++;
+            batch.add(line);
+            if (batch.size() == batchSize) {
+                out.put(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        public void run() {
+            startNanos = System.nanoTime();
+            boolean failed = false;
+            try {
+                for (;;) {
+                    int queued = in.size();
+                    List<String> lines = in.take();
+                    if (lines == END)
+                        break;
+                    occupancy += queued;
+                    maxOccupancy = Math.max(maxOccupancy, queued);
+                    batchesIn++;
+                    linesIn += lines.size();
+                    if (failed)
+                        continue;   // keep draining, so the stage before can finish
+                    long t = System.nanoTime();
+                    try {
+                        stage.process(lines, this);
+                    } catch (IOException | RuntimeException x) {
+                        fail(x);
+                        failed = true;
+                    }
+                    busyNanos += System.nanoTime() - t;
+                }
+                if (!failed) {
+                    long t = System.nanoTime();
+                    try {
+                        stage.finish(this);
+                    } catch (IOException | RuntimeException x) {
+                        fail(x);
+                    }
+                    busyNanos += System.nanoTime() - t;
+                }
+                if (!batch.isEmpty())
+                    out.put(batch);
+                out.put(END);
+            } catch (InterruptedException x) {
+                fail(x);
+            }
+            endNanos = System.nanoTime();
+        }
+    }
+
+    private final int batchSize;
+    private final int queueCapacity;
+    private final List<Step> steps = new ArrayList<>();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    public Pipeline() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public Pipeline(int batchSize, int queueCapacity) {
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Adds a stage after those already added.
+     */
+    public Pipeline add(Stage stage) {
+        steps.add(new Step(stage));
+        return this;
+    }
+
+    private void fail(Exception x) {
+        failure.compareAndSet(null, x);
+    }
+
+    /**
+     * Passes the lines of {@code source} through the stages and writes the
+     * lines that come out of the last one to {@code sink}.
+     */
+    public void run(BufferedReader source, PrintWriter sink)
+        throws IOException, InterruptedException
+    {
+        if (steps.isEmpty())
+            throw new IllegalStateException("No stages");
+        BlockingQueue<List<String>> last = new ArrayBlockingQueue<>(queueCapacity);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            step.out = (i + 1 < steps.size()) ? steps.get(i + 1).in : last;
+            Thread t = new Thread(step, step.stage.name());
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+
+        // read in a thread of its own, so this one can write
+        final BlockingQueue<List<String>> first = steps.get(0).in;
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    List<String> batch = new ArrayList<>(batchSize);
+                    try {
+                        String line;
+                        while ((line = source.readLine()) != null) {
+                            batch.add(line);
+                            if (batch.size() == batchSize) {
+                                first.put(batch);
+                                batch = new ArrayList<>(batchSize);
+                            }
+                        }
+                    } catch (IOException x) {
+                        fail(x);
+                    }
+                    if (!batch.isEmpty())
+                        first.put(batch);
+                    first.put(END);
+                } catch (InterruptedException x) {
+                    fail(x);
+                }
+            }
+        }, "source");
+        reader.setDaemon(true);
+        reader.start();
+
+        for (List<String> batch; (batch = last.take()) != END; ) {
+            for (String line : batch)
+                sink.println(line);
+        }
+        sink.flush();
+        for (Thread t : threads)
+            t.join();
+
+        Exception x = failure.get();
+        if (x instanceof IOException)
+            throw (IOException)x;
+        if (x instanceof InterruptedException)
+            throw (InterruptedException)x;
+        if (x != null)
+            throw (RuntimeException)x;
+    }
+
+    /**
+     * Prints, for each stage, the lines it took and gave, its throughput
+     * while working and overall, and how full its input queue was on
+     * average and at most.
+     */
+    public void report(PrintStream out) {
+        out.format("%-10s %10s %10s %12s %12s %14s%n", "stage", "lines in", "lines out",
+                   "busy lines/s", "lines/s", "queue avg/max");
+        for (Step s : steps) {
+            double busy = Math.max(s.busyNanos, 1) / 1e9;
+            double elapsed = Math.max(s.endNanos - s.startNanos, 1) / 1e9;
+            out.format("%-10s %10d %10d %12.0f %12.0f %7.1f/%d of %d%n", s.stage.name(),
+                       s.linesIn, s.linesOut, s.linesIn / busy, s.linesIn / elapsed,
+                       s.batchesIn == 0 ? 0.0 : (double)s.occupancy / s.batchesIn,
+                       s.maxOccupancy, queueCapacity);
+        }
+    }
+}
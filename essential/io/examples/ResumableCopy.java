@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import static java.nio.file.StandardOpenOption.*;
+import java.nio.file.attribute.*;
+import java.io.*;
+
+/**
+ * Copies a large file in chunks with {@code FileChannel.transferTo}, so that
+ * the operating system can move the data without copying it through the
+ * Java heap. After each chunk is forced to disk, the number of bytes copied
+ * is recorded in a progress file next to the target. If the copy is
+ * interrupted, copying the same file again resumes after the last recorded
+ * chunk instead of starting over.
+ */
+
+public class ResumableCopy {
+
+    static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Returns the progress file kept next to {@code target} while copying.
+     */
+    static Path progressFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".copying");
+    }
+
+    /**
+     * Returns {@code true} if an earlier copy to {@code target} was
+     * interrupted and can be resumed.
+     */
+    static boolean isResumable(Path target) {
+        return Files.exists(progressFile(target));
+    }
+
+    /**
+     * Copies {@code source} to {@code target}, resuming an interrupted copy
+     * of the same, unchanged source if there is one. If {@code verify} is
+     * true the Adler-32 checksums of both files are compared at the end.
+     */
+    static void copy(Path source, Path target, boolean verify) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Path progress = progressFile(target);
+
+        try (FileChannel in = FileChannel.open(source, READ);
+             FileChannel out = FileChannel.open(target, CREATE, WRITE)) {
+            long done = readCheckpoint(progress, size, modified);
+            if (done > out.size())
+                done = 0;
+            if (done > 0)
+                System.err.format("Resuming %s at %d of %d bytes%n", target, done, size);
+            out.truncate(done);
+            out.position(done);
+
+            while (done < size) {
+                long end = Math.min(done + CHUNK_SIZE, size);
+                long position = done;
+                while (position < end) {
+                    long n = in.transferTo(position, end - position, out);
+                    if (n <= 0)
+                        throw new IOException(source + " changed while being copied");
+                    position += n;
+                }
+                out.force(false);
+                done = end;
+                writeCheckpoint(progress, size, modified, done);
+            }
+        }
+
+        if (verify)
+            verify(source, target);
+        Files.deleteIfExists(progress);
+    }
+
+    /**
+     * Throws an {@code IOException} unless {@code source} and {@code target}
+     * have the same Adler-32 checksum.
+     */
+    static void verify(Path source, Path target) throws IOException {
+        long expected = checksum(source);
+        long actual = checksum(target);
+        if (expected != actual) {
+            Files.deleteIfExists(progressFile(target));
+            throw new IOException(String.format(
+                "checksum mismatch: %s is %08x but %s is %08x",
+                source, expected, target, actual));
+        }
+    }
+
+    /**
+     * Returns the Adler-32 checksum of a file.
+     */
+    static long checksum(Path file) throws IOException {
+        Checksum cksum = new Adler32();
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            while (in.read(buf) != -1) {
+                cksum.update(buf.array(), 0, buf.position());
+                buf.clear();
+            }
+        }
+        return cksum.getValue();
+    }
+
+    /**
+     * Returns the number of bytes already copied, or 0 if there is no
+     * progress file or it was written for a different source.
+     */
+    private static long readCheckpoint(Path progress, long size, long modified) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(progress))) {
+            if (in.readLong() == size && in.readLong() == modified)
+                return in.readLong();
+        } catch (IOException x) {
+            // no usable checkpoint
+        }
+        return 0;
+    }
+
+    /**
+     * Records progress by writing a new progress file and renaming it over
+     * the old one, so a crash never leaves a half-written checkpoint.
+     */
+    private static void writeCheckpoint(Path progress, long size, long modified, long done)
+        throws IOException
+    {
+        Path tmp = progress.resolveSibling(progress.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(done);
+        }
+        Files.move(tmp, progress, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -34,13 +34,63 @@ import java.io.Reader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
 import java.io.PipedReader;
 import java.io.PipedWriter;
 import java.io.PrintWriter;
+import java.util.function.UnaryOperator;
 
-
+/**
+ * Prints words.txt sorted by the ends of the words, by reversing each word,
+ * sorting, and reversing them back, each step in its own thread connected
+ * by piped streams.
+ *
+ * With -staged, the same steps are a Pipeline passing batches of words
+ * over queues, and the sort spills to temporary files when it holds more
+ * than the given number of words, so the word list can be of any size:
+ *     java RhymingWords -staged [file] [-memory <words>] [-stats]
+ */
 public class RhymingWords {
-    public static void main(String[] args) throws IOException {
+
+    static final UnaryOperator<String> REVERSE = new UnaryOperator<String>() {
+        public String apply(String word) {
+            return new StringBuilder(word).reverse().toString();
+        }
+    };
+
+    static void staged(String[] args) throws IOException, InterruptedException {
+        String file = "words.txt";
+        int memory = 1000000;
+        boolean stats = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-memory") && i + 1 < args.length)
+                memory = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-stats"))
+                stats = true;
+            else
+                file = args[i];
+        }
+
+        Pipeline pipeline = new Pipeline()
+            .add(Pipeline.map("reverse", REVERSE))
+            .add(new Pipeline.SortStage("sort", memory))
+            .add(Pipeline.map("unreverse", REVERSE));
+        try (BufferedReader in = new BufferedReader(new FileReader(file));
+             PrintWriter out = new PrintWriter(new BufferedWriter(
+                 new OutputStreamWriter(System.out), 1 << 16))) {
+            pipeline.run(in, out);
+        }
+        if (stats)
+            pipeline.report(System.err);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length > 0 && args[0].equals("-staged")) {
+            staged(args);
+            return;
+        }
 
         FileReader words = new FileReader("words.txt");
 
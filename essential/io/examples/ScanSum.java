@@ -33,15 +33,43 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.Scanner;
 import java.util.Locale;
+import java.nio.file.Paths;
 
+/**
+ * Sums the numbers in usnumbers.txt with a Scanner. With -fast, the sum is
+ * made by NumberScanner, which reads the file's bytes directly and gives
+ * the same result; with -parallel, chunks of the file are summed on
+ * several threads with compensated summation.
+ *     java ScanSum [-fast | -parallel [threads]] [file]
+ */
 public class ScanSum {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length > 0 && (args[0].equals("-fast") || args[0].equals("-parallel"))) {
+            int argi = 1;
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (args[0].equals("-parallel") && args.length > argi
+                    && args[argi].matches("\\d+")) {
+                threads = Integer.parseInt(args[argi++]);
+                if (threads < 1) {
+                    System.err.println("usage: java ScanSum [-fast | -parallel [threads]] [file]");
+                    System.exit(-1);
+                }
+            }
+            String file = (args.length > argi) ? args[argi] : "usnumbers.txt";
+            if (args[0].equals("-fast"))
+                System.out.println(NumberScanner.sum(Paths.get(file)));
+            else
+                System.out.println(NumberScanner.parallelSum(Paths.get(file), threads));
+            return;
+        }
 
         Scanner s = null;
         double sum = 0;
 
         try {
-            s = new Scanner(new BufferedReader(new FileReader("usnumbers.txt")));
+            String file = (args.length > 0) ? args[0] : "usnumbers.txt";
+            s = new Scanner(new BufferedReader(new FileReader(file)));
             s.useLocale(Locale.US);
 
             while (s.hasNext()) {
@@ -35,9 +35,19 @@ import static java.nio.file.LinkOption.*;
 import java.nio.file.attribute.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import static java.util.concurrent.TimeUnit.*;
 
 /**
  * Example to watch a directory (or tree) for changes to files.
+ *
+ * With -index, the changes are also recorded in the journal of an index
+ * built by FileIndex, keeping the index up to date.
+ *
+ * With -coalesce or -workers, events for the same file that arrive close
+ * together are merged into one, and are handled by a pool of worker
+ * threads so that the watching thread only drains the watch service. When
+ * the watch service overflows, the directory is scanned again.
  */
 
 public class WatchDir {
@@ -46,6 +56,8 @@ public class WatchDir {
     private final Map<WatchKey,Path> keys;
     private final boolean recursive;
     private boolean trace = false;
+    private FileIndex.Journal journal;
+    private final WatchStats stats = new WatchStats();
 
     @SuppressWarnings("unchecked")
     static <T> WatchEvent<T> cast(WatchEvent<?> event) {
@@ -56,7 +68,9 @@ public class WatchDir {
      * Register the given directory with the WatchService
      */
     private void register(Path dir) throws IOException {
+        long start = System.nanoTime();
         WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        stats.registered(System.nanoTime() - start);
         if (trace) {
             Path prev = keys.get(key);
             if (prev == null) {
@@ -84,6 +98,15 @@ public class WatchDir {
                 register(dir);
                 return FileVisitResult.CONTINUE;
             }
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc)
+                throws IOException
+            {
+                // deleted while we were looking
+                if (exc instanceof NoSuchFileException)
+                    return FileVisitResult.CONTINUE;
+                throw exc;
+            }
         });
     }
 
@@ -92,7 +115,7 @@ public class WatchDir {
      */
     WatchDir(Path dir, boolean recursive) throws IOException {
         this.watcher = FileSystems.getDefault().newWatchService();
-        this.keys = new HashMap<WatchKey,Path>();
+        this.keys = new ConcurrentHashMap<WatchKey,Path>();
         this.recursive = recursive;
 
         if (recursive) {
@@ -107,6 +130,58 @@ public class WatchDir {
         this.trace = true;
     }
 
+    /**
+     * Record the changes seen in the journal of a file index
+     */
+    void recordTo(FileIndex.Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Record a change to the given file in the journal
+     */
+    private void record(WatchEvent.Kind<?> kind, Path child) throws IOException {
+        if (kind == ENTRY_DELETE) {
+            journal.remove(child);
+        } else if (kind == ENTRY_REPLACE) {
+            journal.replaceAll(child);
+        } else if (kind == ENTRY_CREATE && Files.isDirectory(child, NOFOLLOW_LINKS)) {
+            journal.putAll(child);
+        } else {
+            journal.put(child);
+        }
+    }
+
+    /**
+     * Scan a directory again after events for it were lost
+     */
+    private void rescan(Path dir) {
+        System.out.format("OVERFLOW: rescanning %s\n", dir);
+        try {
+            // register any sub-directories created while events were lost
+            if (recursive)
+                registerAll(dir);
+        } catch (IOException x) {
+            System.err.println(x);
+        }
+        reindex(dir);
+    }
+
+    /**
+     * Replace what the journal holds under a directory after events for it
+     * were lost
+     */
+    private void reindex(Path dir) {
+        if (journal == null)
+            return;
+        try {
+            journal.replaceAll(dir);
+            journal.flush();
+        } catch (IOException x) {
+            System.err.println(x);
+        }
+    }
+
     /**
      * Process all events for keys queued to the watcher
      */
@@ -130,8 +205,10 @@ public class WatchDir {
             for (WatchEvent<?> event: key.pollEvents()) {
                 WatchEvent.Kind kind = event.kind();
 
-                // TBD - provide example of how OVERFLOW event is handled
+                // events were lost: look at the directory again
                 if (kind == OVERFLOW) {
+                    stats.overflow();
+                    rescan(dir);
                     continue;
                 }
 
@@ -143,6 +220,14 @@ public class WatchDir {
                 // print out event
                 System.out.format("%s: %s\n", event.kind().name(), child);
 
+                if (journal != null) {
+                    try {
+                        record(kind, child);
+                    } catch (IOException x) {
+                        System.err.println(x);
+                    }
+                }
+
                 // if directory is created, and watching recursively, then
                 // register it and its sub-directories
                 if (recursive && (kind == ENTRY_CREATE)) {
@@ -156,6 +241,14 @@ public class WatchDir {
                 }
             }
 
+            if (journal != null) {
+                try {
+                    journal.flush();
+                } catch (IOException x) {
+                    System.err.println(x);
+                }
+            }
+
             // reset key and remove from set if directory no longer accessible
             boolean valid = key.reset();
             if (!valid) {
@@ -169,26 +262,256 @@ public class WatchDir {
         }
     }
 
+    /**
+     * The kind of a merged change to a file that was deleted and created
+     * again: what was recorded for it, and under it, is removed before the
+     * new file is recorded
+     */
+    static final WatchEvent.Kind<Path> ENTRY_REPLACE = new WatchEvent.Kind<Path>() {
+        public String name() {
+            return "ENTRY_REPLACE";
+        }
+        public Class<Path> type() {
+            return Path.class;
+        }
+        public String toString() {
+            return name();
+        }
+    };
+
+    /**
+     * A change to a file waiting out the coalescing window
+     */
+    private static class Change {
+        final long deadline;
+        final boolean existed;      // the file was there before the change
+        WatchEvent.Kind<?> kind;
+
+        Change(WatchEvent.Kind<?> kind, long deadline) {
+            this.kind = kind;
+            this.deadline = deadline;
+            this.existed = (kind != ENTRY_CREATE);
+        }
+    }
+
+    /**
+     * Merge the next event for a file into the change pending for it, or
+     * return null if they cancel out. Only a file that did not exist before
+     * the change can vanish without trace.
+     */
+    static WatchEvent.Kind<?> merge(boolean existed, WatchEvent.Kind<?> kind,
+                                    WatchEvent.Kind<?> then) {
+        if (then == ENTRY_DELETE)
+            return existed ? ENTRY_DELETE : null;   // null: a temporary file
+        if (then == ENTRY_CREATE)
+            return existed ? ENTRY_REPLACE : ENTRY_CREATE;
+        return kind;                // created, replaced or modified, then written
+    }
+
+    /**
+     * Handle one change on a worker thread. New directories have already
+     * been registered by the watch thread.
+     */
+    private void handle(WatchEvent.Kind<?> kind, Path child) {
+        if (kind == OVERFLOW) {
+            reindex(child);
+            return;
+        }
+        System.out.format("%s: %s\n", kind.name(), child);
+        if (journal != null) {
+            try {
+                record(kind, child);
+                journal.flush();
+            } catch (IOException x) {
+                System.err.println(x);
+            }
+        }
+    }
+
+    /**
+     * Process all events for keys queued to the watcher, merging the events
+     * for each file that arrive within windowMillis of the first, and
+     * handing them to the workers. The changes in one directory, and the
+     * rescan of it after an overflow, always go to the same worker, so they
+     * are handled in the order they happened. New directories are
+     * registered here, as soon as their events arrive, so that nothing
+     * under them is missed while the window runs.
+     */
+    void processCoalescedEvents(long windowMillis, final ThreadPoolExecutor[] workers) {
+        long window = MILLISECONDS.toNanos(windowMillis);
+        LinkedHashMap<Path,Change> pending = new LinkedHashMap<>();
+        boolean done = false;
+        while (!done) {
+
+            // wait for a key, or until the oldest change is due
+            WatchKey key;
+            try {
+                if (pending.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    long wait = pending.values().iterator().next().deadline - System.nanoTime();
+                    key = watcher.poll(Math.max(wait, 0), NANOSECONDS);
+                }
+            } catch (InterruptedException x) {
+                break;
+            }
+
+            // drain every key that is ready before dispatching anything
+            for (; key != null; key = watcher.poll()) {
+                Path dir = (Path)key.watchable();
+                long now = System.nanoTime();
+                for (WatchEvent<?> event: key.pollEvents()) {
+                    stats.eventReceived();
+                    WatchEvent.Kind<?> kind = event.kind();
+                    if (kind == OVERFLOW) {
+                        // the rescan supersedes the changes under dir
+                        stats.overflow();
+                        Iterator<Path> i = pending.keySet().iterator();
+                        while (i.hasNext()) {
+                            if (i.next().startsWith(dir))
+                                i.remove();
+                        }
+                        System.out.format("OVERFLOW: rescanning %s\n", dir);
+                        if (recursive)
+                            registerQuietly(dir);
+                        dispatch(workers, dir, OVERFLOW, dir);
+                        continue;
+                    }
+                    WatchEvent<Path> ev = cast(event);
+                    Path child = dir.resolve(ev.context());
+                    if (recursive && kind == ENTRY_CREATE && Files.isDirectory(child, NOFOLLOW_LINKS))
+                        registerQuietly(child);
+                    Change change = pending.get(child);
+                    if (change == null) {
+                        pending.put(child, new Change(kind, now + window));
+                    } else {
+                        stats.eventCoalesced();
+                        change.kind = merge(change.existed, change.kind, kind);
+                        if (change.kind == null)
+                            pending.remove(child);
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                    done = keys.isEmpty();
+                }
+            }
+
+            // dispatch the changes whose window has passed, or all of them
+            // if nothing is left to watch
+            long now = System.nanoTime();
+            Iterator<Map.Entry<Path,Change>> i = pending.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<Path,Change> e = i.next();
+                if (!done && e.getValue().deadline - now > 0)
+                    break;
+                i.remove();
+                dispatch(workers, e.getKey().getParent(), e.getValue().kind, e.getKey());
+            }
+            stats.setPending(pending.size());
+        }
+    }
+
+    private void registerQuietly(Path dir) {
+        try {
+            registerAll(dir);
+        } catch (IOException x) {
+            System.err.println(x);
+        }
+    }
+
+    private void dispatch(ThreadPoolExecutor[] workers, Path dir,
+                          final WatchEvent.Kind<?> kind, final Path child) {
+        stats.eventDispatched();
+        workers[(dir.hashCode() & 0x7fffffff) % workers.length].execute(new Runnable() {
+            public void run() {
+                handle(kind, child);
+            }
+        });
+    }
+
     static void usage() {
-        System.err.println("usage: java WatchDir [-r] dir");
+        System.err.println("usage: java WatchDir [-r] [-index <index>]" +
+                           " [-coalesce <ms>] [-workers <n>] [-stats <seconds>] dir");
         System.exit(-1);
     }
 
     public static void main(String[] args) throws IOException {
         // parse arguments
-        if (args.length == 0 || args.length > 2)
-            usage();
         boolean recursive = false;
+        Path index = null;
+        long window = -1;
+        int nWorkers = -1;
+        int statsSeconds = 0;
         int dirArg = 0;
-        if (args[0].equals("-r")) {
-            if (args.length < 2)
+        while (dirArg < args.length && args[dirArg].startsWith("-")) {
+            if (args[dirArg].equals("-r")) {
+                recursive = true;
+            } else if (args[dirArg].equals("-index") && dirArg + 1 < args.length) {
+                index = Paths.get(args[++dirArg]);
+            } else if (args[dirArg].equals("-coalesce") && dirArg + 1 < args.length) {
+                window = Long.parseLong(args[++dirArg]);
+            } else if (args[dirArg].equals("-workers") && dirArg + 1 < args.length) {
+                nWorkers = Integer.parseInt(args[++dirArg]);
+            } else if (args[dirArg].equals("-stats") && dirArg + 1 < args.length) {
+                statsSeconds = Integer.parseInt(args[++dirArg]);
+            } else {
                 usage();
-            recursive = true;
+            }
             dirArg++;
         }
+        if (dirArg != args.length - 1)
+            usage();
 
         // register directory and process its events
         Path dir = Paths.get(args[dirArg]);
-        new WatchDir(dir, recursive).processEvents();
+        final WatchDir watchDir = new WatchDir(dir, recursive);
+        FileIndex.Journal journal = null;
+        if (index != null) {
+            journal = new FileIndex.Journal(index);
+            watchDir.recordTo(journal);
+        }
+        try {
+            if (window < 0 && nWorkers < 0 && statsSeconds == 0) {
+                watchDir.processEvents();
+                return;
+            }
+
+            if (nWorkers <= 0)
+                nWorkers = Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor[] workers = new ThreadPoolExecutor[nWorkers];
+            for (int i = 0; i < nWorkers; i++) {
+                workers[i] = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
+                                                    new LinkedBlockingQueue<Runnable>());
+            }
+            ScheduledExecutorService reporter = null;
+            if (statsSeconds > 0) {
+                reporter = Executors.newSingleThreadScheduledExecutor();
+                reporter.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        System.err.println(watchDir.stats.report(workers));
+                    }
+                }, statsSeconds, statsSeconds, SECONDS);
+            }
+
+            watchDir.processCoalescedEvents(window < 0 ? 50 : window, workers);
+
+            for (ThreadPoolExecutor w : workers)
+                w.shutdown();
+            for (ThreadPoolExecutor w : workers) {
+                try {
+                    w.awaitTermination(1, MINUTES);
+                } catch (InterruptedException x) {
+                    break;
+                }
+            }
+            if (reporter != null) {
+                reporter.shutdown();
+                System.err.println(watchDir.stats.report(workers));
+            }
+        } finally {
+            if (journal != null)
+                journal.close();
+        }
     }
 }
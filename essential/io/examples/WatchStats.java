@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WatchStats counts the events seen by a WatchDir running with coalescing,
+ * how many were merged away, how often the watch service overflowed, and
+ * how long directories take to register. All methods may be called from
+ * any thread.
+ */
+public class WatchStats {
+    private final LongAdder events = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder registrationNanos = new LongAdder();
+    private final AtomicLong maxRegistrationNanos = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public void eventReceived() {
+        events.increment();
+    }
+
+    public void eventCoalesced() {
+        coalesced.increment();
+    }
+
+    public void eventDispatched() {
+        dispatched.increment();
+    }
+
+    public void overflow() {
+        overflows.increment();
+    }
+
+    public void registered(long nanos) {
+        registrations.increment();
+        registrationNanos.add(nanos);
+        long current;
+        while (nanos > (current = maxRegistrationNanos.get())
+                && !maxRegistrationNanos.compareAndSet(current, nanos))
+            ;
+    }
+
+    /**
+     * Sets the number of paths waiting out the coalescing window.
+     */
+    public void setPending(int n) {
+        pending.set(n);
+    }
+
+    public long overflows() {
+        return overflows.sum();
+    }
+
+    /**
+     * Returns a one-line summary. The queue depth is the number of paths
+     * waiting out the coalescing window plus the tasks queued to the
+     * workers.
+     */
+    public String report(ThreadPoolExecutor[] workers) {
+        int queued = 0;
+        for (ThreadPoolExecutor w : workers)
+            queued += w.getQueue().size();
+        long n = registrations.sum();
+        return String.format("events %d, coalesced %d, dispatched %d,"
+                + " queue depth %d (%d pending, %d queued), overflows %d,"
+                + " registrations %d avg %.3f ms max %.3f ms",
+                events.sum(), coalesced.sum(), dispatched.sum(),
+                pending.get() + queued, pending.get(), queued,
+                overflows.sum(), n,
+                n == 0 ? 0.0 : registrationNanos.sum() / 1e6 / n,
+                maxRegistrationNanos.get() / 1e6);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 1995, 2008, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FastQuoteServerThread answers the same requests as QuoteServerThread, but
+ * is built to serve a high rate of them. All quotes are read and encoded once,
+ * into one direct buffer, and each request is answered by sending a slice of
+ * that buffer through a DatagramChannel, reusing the same buffers every time.
+ * Quotes are served round and round rather than until they run out.
+ *
+ * Several workers may serve the same port if the platform supports
+ * SO_REUSEPORT; the operating system then spreads requests among them.
+ */
+public class FastQuoteServerThread extends Thread {
+
+    private static final int PORT = 4445;
+
+    private final DatagramChannel channel;
+    // Views of the shared quote buffer and offset table, private to this
+    // worker so that setting their position needs no locking.
+    private final ByteBuffer quotes;
+    private final int[] offsets;
+    private final ByteBuffer request = ByteBuffer.allocateDirect(256);
+    private final LongAdder packets;
+    private int nextQuote;
+
+    private FastQuoteServerThread(String name, DatagramChannel channel,
+            ByteBuffer quotes, int[] offsets, LongAdder packets) {
+        super(name);
+        this.channel = channel;
+        this.quotes = quotes.duplicate();
+        this.offsets = offsets;
+        this.packets = packets;
+    }
+
+    /**
+     * Starts worker threads serving the quotes in quoteFile, and returns
+     * the counter of packets they send.
+     */
+    public static LongAdder startWorkers(String quoteFile, int workers)
+            throws IOException {
+        // Encode every quote into one buffer; quote i is at offsets[i]
+        // up to offsets[i + 1].
+        List<String> lines = Files.readAllLines(Paths.get(quoteFile),
+                                                StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IOException("No quotes in " + quoteFile);
+        }
+        int[] offsets = new int[lines.size() + 1];
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (int i = 0; i < lines.size(); i++) {
+            byte[] quote = lines.get(i).getBytes(StandardCharsets.UTF_8);
+            encoded.write(quote, 0, quote.length);
+            offsets[i + 1] = encoded.size();
+        }
+        ByteBuffer quotes = ByteBuffer.allocateDirect(encoded.size());
+        quotes.put(encoded.toByteArray()).flip();
+
+        LongAdder packets = new LongAdder();
+        for (int i = 0; i < workers; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            if (workers > 1) {
+                if (!channel.supportedOptions()
+                        .contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    channel.close();
+                    throw new IOException(
+                        "SO_REUSEPORT is not supported; use one worker");
+                }
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(PORT));
+            new FastQuoteServerThread("FastQuoteServerThread " + i, channel,
+                                      quotes, offsets, packets).start();
+        }
+        return packets;
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                // receive request
+                request.clear();
+                SocketAddress client = channel.receive(request);
+
+                // send the next quote back
+                quotes.limit(offsets[nextQuote + 1]).position(offsets[nextQuote]);
+                channel.send(quotes, client);
+                packets.increment();
+                if (++nextQuote == offsets.length - 1)
+                    nextQuote = 0;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+    }
+}
@@ -31,12 +31,39 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class MulticastClient {
 
+    // Usage: java MulticastClient [-paced [<seconds>] [-loopback]]
+    //
+    //   -paced     receive datagrams from MulticastServer -rate for the given
+    //              time, 10 seconds by default, and report loss and jitter
+    //   -loopback  join the group on the loopback interface, for testing
     public static void main(String[] args) throws IOException {
 
+        if (args.length > 0) {
+            int seconds = 10;
+            boolean loopback = false;
+            boolean usage = !args[0].equals("-paced");
+            for (int i = 1; i < args.length && !usage; i++) {
+                if (args[i].equals("-loopback"))
+                    loopback = true;
+                else if (i == 1 && Character.isDigit(args[i].charAt(0)))
+                    seconds = Integer.parseInt(args[i]);
+                else
+                    usage = true;
+            }
+            if (usage) {
+                System.err.println(
+                    "Usage: java MulticastClient [-paced [<seconds>] [-loopback]]");
+                System.exit(1);
+            }
+            receivePaced(seconds, loopback);
+            return;
+        }
+
         MulticastSocket socket = new MulticastSocket(4446);
         InetAddress address = InetAddress.getByName("230.0.0.1");
 	socket.joinGroup(address);
@@ -58,4 +85,77 @@ public class MulticastClient {
 	socket.close();
     }
 
+
+    // Receives paced datagrams, checking their sequence numbers for gaps
+    // and estimating interarrival jitter as in RFC 3550: the difference
+    // between the spacing of two datagrams on arrival and on sending,
+    // smoothed over the last sixteen or so datagrams.
+    static void receivePaced(int seconds, boolean loopback) throws IOException {
+        InetAddress address = InetAddress.getByName("230.0.0.1");
+        NetworkInterface networkInterface = loopback
+            ? NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress())
+            : null;
+        MulticastSocket socket = new MulticastSocket(4446);
+        socket.joinGroup(new InetSocketAddress(address, 0), networkInterface);
+        socket.setSoTimeout(1000);
+
+        byte[] buf = new byte[65507];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        ByteBuffer data = ByteBuffer.wrap(buf);
+
+        long expected = -1;
+        long received = 0, quotes = 0, lost = 0, late = 0;
+        long lastSent = 0, lastArrival = 0;
+        double jitter = 0;
+        long end = System.nanoTime() + seconds * 1000000000L;
+        long nextReport = System.nanoTime() + 1000000000L;
+
+        while (System.nanoTime() < end) {
+            try {
+                packet.setLength(buf.length);
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            long arrival = System.nanoTime();
+            if (packet.getLength() < MulticastServerThread.HEADER_SIZE)
+                continue;
+            long sequence = data.getLong(0);
+            long sent = data.getLong(8);
+            received++;
+            quotes += data.getShort(16);
+
+            if (expected >= 0 && sequence > expected) {
+                lost += sequence - expected;
+            } else if (sequence < expected) {
+                // It arrived after a later one, and was counted as lost.
+                late++;
+                lost--;
+            }
+            if (received > 1) {
+                long d = Math.abs((arrival - lastArrival) - (sent - lastSent));
+                jitter += (d - jitter) / 16;
+            }
+            expected = Math.max(expected, sequence + 1);
+            lastSent = sent;
+            lastArrival = arrival;
+
+            if (arrival >= nextReport) {
+                report(received, quotes, lost, late, jitter);
+                nextReport += 1000000000L;
+            }
+        }
+        report(received, quotes, lost, late, jitter);
+
+        socket.leaveGroup(new InetSocketAddress(address, 0), networkInterface);
+        socket.close();
+    }
+
+    private static void report(long received, long quotes, long lost,
+            long late, double jitter) {
+        System.out.format("received %d datagrams (%d quotes), lost %d (%.2f%%),"
+            + " out of order %d, jitter %.1f us%n",
+            received, quotes, lost,
+            lost * 100.0 / Math.max(received + lost, 1), late, jitter / 1e3);
+    }
 }
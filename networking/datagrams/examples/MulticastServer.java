@@ -29,8 +29,47 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */ 
 
+import java.net.*;
+
 public class MulticastServer {
+    // Usage: java MulticastServer [-rate <packets/s>] [-mtu <bytes>]
+    //                             [-batch <quotes>] [-loopback]
+    //
+    //   -rate      send this many datagrams a second instead of one every
+    //              few seconds
+    //   -mtu       largest datagram payload, 1472 by default
+    //   -batch     most quotes per datagram, as many as fit by default
+    //   -loopback  send through the loopback interface, for testing
     public static void main(String[] args) throws java.io.IOException {
-        new MulticastServerThread().start();
+        if (args.length == 0) {
+            new MulticastServerThread().start();
+            return;
+        }
+
+        int rate = 0;
+        int mtu = 1472;
+        int batch = Short.MAX_VALUE;
+        NetworkInterface networkInterface = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-rate") && i + 1 < args.length) {
+                rate = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-mtu") && i + 1 < args.length) {
+                mtu = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-batch") && i + 1 < args.length) {
+                batch = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-loopback")) {
+                networkInterface = NetworkInterface.getByInetAddress(
+                    InetAddress.getLoopbackAddress());
+            } else {
+                rate = -1;
+                break;
+            }
+        }
+        if (rate <= 0) {
+            System.err.println("Usage: java MulticastServer [-rate <packets/s>]"
+                + " [-mtu <bytes>] [-batch <quotes>] [-loopback]");
+            System.exit(1);
+        }
+        new MulticastServerThread(rate, mtu, batch, networkInterface).start();
     }
 }
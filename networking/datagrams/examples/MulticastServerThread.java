@@ -31,17 +31,66 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.locks.LockSupport;
 
 public class MulticastServerThread extends QuoteServerThread {
 
+    // A paced datagram starts with its sequence number, the sender's
+    // System.nanoTime() when it was sent, and the number of quotes in it.
+    // Each quote follows as a two-byte length and UTF-8 bytes.
+    public static final int HEADER_SIZE = 8 + 8 + 2;
+    public static final int MAX_QUOTE_SIZE = 256;
+
     private long FIVE_SECONDS = 5000;
 
+    private int packetsPerSecond;
+    private int maxPayload;
+    private int maxBatch;
+
     public MulticastServerThread() throws IOException {
         super("MulticastServerThread");
     }
 
+    /**
+     * Creates a thread that sends packetsPerSecond datagrams a second, each
+     * holding as many quotes as fit in maxPayload bytes, up to maxBatch.
+     * If networkInterface is not null, datagrams are sent through it.
+     */
+    public MulticastServerThread(int packetsPerSecond, int maxPayload,
+            int maxBatch, NetworkInterface networkInterface) throws IOException {
+        this();
+        if (packetsPerSecond < 1 || maxBatch < 1 || maxBatch > Short.MAX_VALUE
+                || maxPayload < HEADER_SIZE + 2 + MAX_QUOTE_SIZE) {
+            throw new IllegalArgumentException("rate must be positive, batch"
+                + " between 1 and " + Short.MAX_VALUE + ", payload at least "
+                + (HEADER_SIZE + 2 + MAX_QUOTE_SIZE));
+        }
+        this.packetsPerSecond = packetsPerSecond;
+        this.maxPayload = maxPayload;
+        this.maxBatch = maxBatch;
+        if (networkInterface != null) {
+            socket.setOption(StandardSocketOptions.IP_MULTICAST_IF,
+                             networkInterface);
+        }
+    }
+
     public void run() {
+        if (packetsPerSecond > 0) {
+            runPaced();
+            return;
+        }
+
+        InetAddress group;
+        try {
+            group = InetAddress.getByName("230.0.0.1");
+        } catch (UnknownHostException e) {
+            e.printStackTrace();
+            return;
+        }
+
         while (moreQuotes) {
             try {
                 byte[] buf = new byte[256];
@@ -55,7 +104,6 @@ public class MulticastServerThread extends QuoteServerThread {
                 buf = dString.getBytes();
 
 		    // send it
-                InetAddress group = InetAddress.getByName("230.0.0.1");
                 DatagramPacket packet = new DatagramPacket(buf, buf.length, group, 4446);
                 socket.send(packet);
 
@@ -70,4 +118,79 @@ public class MulticastServerThread extends QuoteServerThread {
         }
 	socket.close();
     }
+
+    // Sends quotes round and round at a steady rate. Each send is scheduled
+    // at a fixed offset from the start, so time lost to one late send is
+    // made up by the next instead of accumulating.
+    private void runPaced() {
+        try {
+            InetAddress group = InetAddress.getByName("230.0.0.1");
+            List<byte[]> quotes = readQuotes();
+
+            ByteBuffer buf = ByteBuffer.allocate(maxPayload);
+            DatagramPacket packet =
+                new DatagramPacket(buf.array(), 0, group, 4446);
+            long interval = 1000000000L / packetsPerSecond;
+            long next = System.nanoTime();
+            long sequence = 0;
+            int nextQuote = 0;
+
+            while (true) {
+                // fill a datagram with as many quotes as fit
+                buf.clear();
+                buf.putLong(sequence++).putLong(0).putShort((short) 0);
+                int count = 0;
+                while (count < maxBatch) {
+                    byte[] quote = quotes.isEmpty()
+                        ? new Date().toString().getBytes(StandardCharsets.UTF_8)
+                        : quotes.get(nextQuote);
+                    if (buf.remaining() < 2 + quote.length)
+                        break;
+                    buf.putShort((short) quote.length).put(quote);
+                    count++;
+                    if (!quotes.isEmpty())
+                        nextQuote = (nextQuote + 1) % quotes.size();
+                }
+                buf.putShort(16, (short) count);
+
+                // wait for its turn
+                long delay;
+                while ((delay = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+
+                buf.putLong(8, System.nanoTime());
+                packet.setLength(buf.position());
+                socket.send(packet);
+
+                next += interval;
+                // After a long stall, such as a GC pause, start afresh rather
+                // than send a burst to catch up.
+                if (System.nanoTime() - next > 1000000000L) {
+                    next = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            socket.close();
+        }
+    }
+
+    // Reads and encodes the quotes not yet served, if there is a quote file.
+    private List<byte[]> readQuotes() throws IOException {
+        List<byte[]> quotes = new ArrayList<byte[]>();
+        if (in != null) {
+            String quote;
+            while ((quote = in.readLine()) != null) {
+                byte[] bytes = quote.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > MAX_QUOTE_SIZE) {
+                    bytes = Arrays.copyOf(bytes, MAX_QUOTE_SIZE);
+                }
+                quotes.add(bytes);
+            }
+            in.close();
+        }
+        return quotes;
+    }
 }
@@ -29,9 +29,38 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */ 
 import java.io.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class QuoteServer {
+    // Usage: java QuoteServer [-fast [<workers>]]
+    //
+    //   -fast  serve with FastQuoteServerThread workers and print the
+    //          number of packets sent each second
     public static void main(String[] args) throws IOException {
-        new QuoteServerThread().start();
+        if (args.length == 0) {
+            new QuoteServerThread().start();
+            return;
+        }
+        if (!args[0].equals("-fast") || args.length > 2) {
+            System.err.println("Usage: java QuoteServer [-fast [<workers>]]");
+            System.exit(1);
+        }
+
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        LongAdder packets =
+            FastQuoteServerThread.startWorkers("one-liners.txt", workers);
+        long last = 0;
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = packets.sum();
+            if (now != last) {
+                System.out.println((now - last) + " packets/s");
+            }
+            last = now;
+        }
     }
 }
@@ -31,19 +31,30 @@
 
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.Semaphore;
 
 public class EchoClient {
     public static void main(String[] args) throws IOException {
         
-        if (args.length != 2) {
+        if (args.length != 2
+                && !(args.length >= 4 && args.length <= 5
+                     && args[2].equals("-pipeline"))) {
             System.err.println(
-                "Usage: java EchoClient <host name> <port number>");
+                "Usage: java EchoClient <host name> <port number>"
+                + " [-pipeline <depth> [<lines>]]");
             System.exit(1);
         }
 
         String hostName = args[0];
         int portNumber = Integer.parseInt(args[1]);
 
+        if (args.length > 2) {
+            int depth = Integer.parseInt(args[3]);
+            int lines = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+            pipeline(hostName, portNumber, depth, lines);
+            return;
+        }
+
         try (
             Socket echoSocket = new Socket(hostName, portNumber);
             PrintWriter out =
@@ -69,4 +80,76 @@ public class EchoClient {
             System.exit(1);
         } 
     }
+
+    // Sends lines numbered lines without waiting for each echo, keeping up
+    // to depth of them in flight, and checks that they all come back in
+    // order. A depth of 1 is the same strict ping-pong as the interactive
+    // mode.
+    static void pipeline(String hostName, int portNumber, int depth,
+            final int lines) throws IOException {
+        try (
+            Socket echoSocket = new Socket(hostName, portNumber);
+            PrintWriter out = new PrintWriter(
+                new BufferedWriter(
+                    new OutputStreamWriter(echoSocket.getOutputStream())));
+            final BufferedReader in =
+                new BufferedReader(
+                    new InputStreamReader(echoSocket.getInputStream()));
+        ) {
+            echoSocket.setTcpNoDelay(true);
+            final Semaphore window = new Semaphore(depth);
+            final IOException[] failure = new IOException[1];
+
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < lines; i++) {
+                            String echo = in.readLine();
+                            if (echo == null || !echo.equals("line " + i)) {
+                                throw new IOException("Expected \"line " + i
+                                    + "\" but got \"" + echo + "\"");
+                            }
+                            window.release();
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        window.release(lines);
+                    }
+                }
+            });
+
+            long start = System.nanoTime();
+            reader.start();
+            long inFlight = 0;
+            for (int i = 0; i < lines && failure[0] == null; i++) {
+                if (!window.tryAcquire()) {
+                    // The window is full: send what is buffered and wait.
+                    out.flush();
+                    window.acquireUninterruptibly();
+                }
+                inFlight += depth - window.availablePermits();
+                out.println("line " + i);
+            }
+            out.flush();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {}
+            long elapsed = System.nanoTime() - start;
+
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            System.out.format("%d lines with depth %d in %.1f ms:"
+                + " %.0f lines/s, %.1f lines in flight on average%n",
+                lines, depth, elapsed / 1e6, lines * 1e9 / elapsed,
+                (double) inFlight / lines);
+        } catch (UnknownHostException e) {
+            System.err.println("Don't know about host " + hostName);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Couldn't get I/O for the connection to " +
+                hostName + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
 }
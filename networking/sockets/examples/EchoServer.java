@@ -33,14 +33,23 @@ import java.net.*;
 import java.io.*;
 
 public class EchoServer {
+    // Buffer size used by the pipelined mode.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     public static void main(String[] args) throws IOException {
         
-        if (args.length != 1) {
-            System.err.println("Usage: java EchoServer <port number>");
+        if (args.length < 1 || args.length > 2
+                || (args.length == 2 && !args[1].equals("-pipelined"))) {
+            System.err.println("Usage: java EchoServer <port number> [-pipelined]");
             System.exit(1);
         }
         
         int portNumber = Integer.parseInt(args[0]);
+
+        if (args.length == 2) {
+            servePipelined(portNumber);
+            return;
+        }
         
         try (
             ServerSocket serverSocket =
@@ -61,4 +70,64 @@ public class EchoServer {
             System.out.println(e.getMessage());
         }
     }
+
+    // Counts the writes that reach the socket, however they are caused.
+    private static class CountingOutputStream extends FilterOutputStream {
+        long writes;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writes++;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            out.write(b, off, len);
+        }
+    }
+
+    // Echoes through large buffers and flushes only when no more input is
+    // waiting, so a client that sends many lines without waiting gets its
+    // echoes back in a few large writes instead of one write per line.
+    private static void servePipelined(int portNumber) {
+        CountingOutputStream socketOut = null;
+        try (
+            ServerSocket serverSocket = new ServerSocket(portNumber);
+            Socket clientSocket = serverSocket.accept();
+            PrintWriter out = new PrintWriter(
+                new BufferedWriter(
+                    new OutputStreamWriter(socketOut =
+                        new CountingOutputStream(clientSocket.getOutputStream())),
+                    BUFFER_SIZE));
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(clientSocket.getInputStream()),
+                BUFFER_SIZE);
+        ) {
+            clientSocket.setTcpNoDelay(true);
+            long lines = 0;
+            String inputLine;
+            while ((inputLine = in.readLine()) != null) {
+                out.println(inputLine);
+                lines++;
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+            long writes = socketOut.writes;
+            System.out.format("Echoed %d lines in %d writes,"
+                + " %.1f lines per write%n",
+                lines, writes, writes == 0 ? 0.0 : (double) lines / writes);
+        } catch (IOException e) {
+            System.out.println("Exception caught when trying to listen on port "
+                + portNumber + " or listening for a connection");
+            System.out.println(e.getMessage());
+        }
+    }
 }
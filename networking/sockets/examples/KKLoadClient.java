@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 1995, 2013, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * KKLoadClient drives a Knock Knock server, such as KKMultiServer, or an echo
+ * server with many concurrent scripted clients, and reports the throughput
+ * and the distribution of round-trip times.
+ *
+ * In Knock Knock mode each connection replays "Who's there?", "<clue> who?"
+ * and "y" for as long as the test runs, then says "n". In echo mode each
+ * connection sends a line and waits for it to come back.
+ */
+public class KKLoadClient {
+    private static final String[] CLUES =
+        { "Turnip", "Little Old Lady", "Atch", "Who", "Who" };
+
+    public static void main(String[] args) throws Exception {
+        
+        if (args.length < 2) {
+            usage();
+        }
+
+        String hostName = args[0];
+        int portNumber = Integer.parseInt(args[1]);
+        boolean echo = false;
+        int connections = 10;
+        int seconds = 10;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-echo")) {
+                echo = true;
+            } else if (args[i].equals("-connections") && i + 1 < args.length) {
+                connections = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seconds") && i + 1 < args.length) {
+                seconds = Integer.parseInt(args[++i]);
+            } else {
+                usage();
+            }
+        }
+
+        long deadline = System.nanoTime() + seconds * 1000000000L;
+        List<Driver> drivers = new ArrayList<Driver>();
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            Driver driver = new Driver(hostName, portNumber, echo, deadline);
+            drivers.add(driver);
+            driver.start();
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        int failed = 0;
+        for (Driver driver : drivers) {
+            driver.join();
+            histogram.add(driver.histogram);
+            if (driver.failure != null) {
+                if (failed++ == 0) {
+                    System.err.println("Connection failed: " + driver.failure);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.format("%d connections (%d failed), %d round trips"
+            + " in %.1f s: %.0f round trips/s%n",
+            connections, failed, histogram.count(), elapsed / 1e9,
+            histogram.count() * 1e9 / elapsed);
+        System.out.format("round trip (us): min %.1f, mean %.1f, p50 %.1f,"
+            + " p99 %.1f, p99.9 %.1f, max %.1f%n",
+            histogram.min() / 1e3, histogram.mean() / 1e3,
+            histogram.valueAtPercentile(50) / 1e3,
+            histogram.valueAtPercentile(99) / 1e3,
+            histogram.valueAtPercentile(99.9) / 1e3,
+            histogram.max() / 1e3);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java KKLoadClient <host name> <port number>"
+            + " [-echo] [-connections <n>] [-seconds <s>]");
+        System.exit(1);
+    }
+
+    // One scripted client on its own connection and thread.
+    static class Driver extends Thread {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        IOException failure;
+
+        private final String hostName;
+        private final int portNumber;
+        private final boolean echo;
+        private final long deadline;
+        private PrintWriter out;
+        private BufferedReader in;
+
+        Driver(String hostName, int portNumber, boolean echo, long deadline) {
+            super("KKLoadClient driver");
+            this.hostName = hostName;
+            this.portNumber = portNumber;
+            this.echo = echo;
+            this.deadline = deadline;
+        }
+
+        public void run() {
+            try (
+                Socket socket = new Socket(hostName, portNumber);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream()));
+            ) {
+                socket.setTcpNoDelay(true);
+                this.out = out;
+                this.in = in;
+                if (echo) {
+                    echo();
+                } else {
+                    knockKnock();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        private void echo() throws IOException {
+            String line = "Mares eat oats";
+            while (System.nanoTime() < deadline) {
+                expect(roundTrip(line), line);
+            }
+        }
+
+        private void knockKnock() throws IOException {
+            expect(in.readLine(), "Knock! Knock!");
+            for (int joke = 0; ; joke = (joke + 1) % CLUES.length) {
+                expect(roundTrip("Who's there?"), CLUES[joke]);
+                expect(roundTrip(CLUES[joke] + " who?"), null);
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                expect(roundTrip("y"), "Knock! Knock!");
+            }
+            expect(roundTrip("n"), "Bye.");
+        }
+
+        // Sends a line and returns the reply, recording how long it took.
+        private String roundTrip(String request) throws IOException {
+            long start = System.nanoTime();
+            out.println(request);
+            String reply = in.readLine();
+            histogram.record(System.nanoTime() - start);
+            return reply;
+        }
+
+        // expected == null accepts any reply.
+        private static void expect(String reply, String expected)
+                throws IOException {
+            if (reply == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (expected != null && !reply.equals(expected)) {
+                throw new IOException("Expected \"" + expected
+                    + "\" but got \"" + reply + "\"");
+            }
+        }
+    }
+}
@@ -31,17 +31,27 @@
 
 import java.net.*;
 import java.io.*;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.*;
 
 public class KKMultiServer {
+    // How long a graceful shutdown waits for sessions to finish on their own.
+    private static final long DRAIN_SECONDS = 30;
+
     public static void main(String[] args) throws IOException {
 
-    if (args.length != 1) {
-        System.err.println("Usage: java KKMultiServer <port number>");
-        System.exit(1);
+    if (args.length < 1) {
+        usage();
     }
 
         int portNumber = Integer.parseInt(args[0]);
         boolean listening = true;
+
+        if (args.length > 1) {
+            serveWithExecutor(portNumber, args);
+            return;
+        }
         
         try (ServerSocket serverSocket = new ServerSocket(portNumber)) { 
             while (listening) {
@@ -52,4 +62,141 @@ public class KKMultiServer {
             System.exit(-1);
         }
     }
+
+    private static void usage() {
+        System.err.println("Usage: java KKMultiServer <port number>"
+            + " [-virtual | -pool <threads>] [-stats <seconds>]");
+        System.exit(1);
+    }
+
+    // Runs each session as a KKSession on either a virtual thread or a fixed
+    // pool of threads. With a pool, no more connections are accepted than
+    // there are threads; further clients wait in the listen backlog.
+    private static void serveWithExecutor(int portNumber, String[] args)
+            throws IOException {
+        ExecutorService executor = null;
+        int threads = 0;
+        int statsSeconds = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-virtual")) {
+                executor = newVirtualThreadExecutor();
+            } else if (args[i].equals("-pool") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+                executor = Executors.newFixedThreadPool(threads);
+            } else if (args[i].equals("-stats") && i + 1 < args.length) {
+                statsSeconds = Integer.parseInt(args[++i]);
+            } else {
+                usage();
+            }
+        }
+        if (executor == null) {
+            usage();
+        }
+
+        final ServerSocket serverSocket = new ServerSocket(portNumber);
+        final ExecutorService sessions = executor;
+        final KKServerStats stats = new KKServerStats();
+        final Set<Socket> open = ConcurrentHashMap.newKeySet();
+        final Semaphore permits = threads > 0 ? new Semaphore(threads) : null;
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        ScheduledExecutorService reporter = null;
+        if (statsSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    System.out.println(stats.report());
+                }
+            }, statsSeconds, statsSeconds, TimeUnit.SECONDS);
+        }
+
+        // On Ctrl-C, stop accepting and let the open sessions finish.
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                shutdown(serverSocket, sessions, open, stats);
+                try {
+                    stopped.await(DRAIN_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {}
+            }
+        });
+
+        try {
+            while (true) {
+                if (permits != null) {
+                    permits.acquireUninterruptibly();
+                }
+                final Socket socket = serverSocket.accept();
+                stats.connectionAccepted();
+                open.add(socket);
+                try {
+                    sessions.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                new KKSession(socket, stats).run();
+                            } finally {
+                                open.remove(socket);
+                                if (permits != null) {
+                                    permits.release();
+                                }
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Accepted while shutting down: turn the client away.
+                    open.remove(socket);
+                    socket.close();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) {
+                System.err.println("Could not listen on port " + portNumber);
+                System.exit(-1);
+            }
+        } finally {
+            if (reporter != null) {
+                reporter.shutdown();
+            }
+            System.out.println(stats.report());
+            stopped.countDown();
+        }
+    }
+
+    // Stops accepting connections, waits up to DRAIN_SECONDS for sessions
+    // in progress, then closes the sockets of any that are left.
+    private static void shutdown(ServerSocket serverSocket,
+            ExecutorService sessions, Set<Socket> open, KKServerStats stats) {
+        System.out.println("Draining " + stats.activeSessions() + " sessions");
+        try {
+            serverSocket.close();
+        } catch (IOException e) {}
+        sessions.shutdown();
+        try {
+            if (!sessions.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Closing " + open.size()
+                    + " sessions that did not finish");
+                for (Socket socket : open) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {}
+                }
+                sessions.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {}
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively
+    // so that this example still compiles and runs on releases before 21.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod(
+                "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads need Java 21 or later;"
+                + " use -pool <threads> instead");
+            System.exit(1);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 1995, 2013, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.net.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * KKNioServer speaks the same protocol as KnockKnockServer, but serves many
+ * clients from a few threads using non-blocking channels. One thread accepts
+ * connections and hands them in turn to a number of reactor threads; each
+ * reactor waits on its own Selector and serves every connection it owns.
+ *
+ * A connection costs one KnockKnockProtocol and a small input buffer, so a
+ * server can hold tens of thousands of idle clients. If a client does not
+ * read its responses, the server stops reading its requests until the
+ * pending output has been written.
+ */
+public class KKNioServer {
+    // Longest request line accepted; longer lines close the connection.
+    private static final int MAX_LINE = 256;
+    // How long to wait after a failed accept, such as when the process has
+    // run out of file descriptors.
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+    private static final byte[] LINE_SEPARATOR =
+        System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1 || args.length > 2) {
+            System.err.println(
+                "Usage: java KKNioServer <port number> [<reactor threads>]");
+            System.exit(1);
+        }
+
+        int portNumber = Integer.parseInt(args[0]);
+        int reactorCount = args.length > 1 ? Integer.parseInt(args[1])
+                                           : Runtime.getRuntime().availableProcessors();
+
+        Reactor[] reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor("KKNioServer reactor " + i);
+            reactors[i].start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            try {
+                serverChannel.bind(new InetSocketAddress(portNumber), 1024);
+            } catch (IOException e) {
+                System.err.println("Could not listen on port " + portNumber);
+                System.exit(-1);
+            }
+            for (int next = 0; ; ) {
+                SocketChannel channel = null;
+                try {
+                    channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    reactors[next].add(channel);
+                    next = (next + 1) % reactorCount;
+                } catch (IOException e) {
+                    // Out of file descriptors, or the client went away:
+                    // drop this connection and give the others a moment
+                    // to finish before accepting the next.
+                    System.err.println("Could not accept a connection: " + e);
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException x) {}
+                    }
+                    try {
+                        Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // A thread that serves the connections registered with its selector.
+    static class Reactor extends Thread {
+        private final Selector selector;
+        private final Queue<SocketChannel> added =
+            new ConcurrentLinkedQueue<SocketChannel>();
+        // Reused for every line read by this reactor.
+        private final byte[] line = new byte[MAX_LINE];
+
+        Reactor(String name) throws IOException {
+            super(name);
+            selector = Selector.open();
+        }
+
+        // Called from the accepting thread.
+        void add(SocketChannel channel) {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+
+                SocketChannel channel;
+                while ((channel = added.poll()) != null) {
+                    register(channel);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                            if (key.isValid() && !connection.hasPending()) {
+                                // Answer lines that arrived while waiting.
+                                connection.processLines(line);
+                            }
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read(line);
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                SelectionKey key = channel.register(selector, 0);
+                Connection connection = new Connection(key);
+                key.attach(connection);
+                // Initiate conversation with client
+                connection.respond(connection.kkp.processInput(null));
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // The state of one client: its protocol, the bytes of a partly received
+    // line, and any response the client has not yet accepted.
+    static class Connection {
+        final KnockKnockProtocol kkp = new KnockKnockProtocol();
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        private ByteBuffer pending;
+        private boolean closing;
+
+        Connection(SelectionKey key) {
+            this.key = key;
+            this.channel = (SocketChannel) key.channel();
+        }
+
+        boolean hasPending() {
+            return pending != null;
+        }
+
+        // Reads what the client has sent and answers every complete line.
+        void read(byte[] line) throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            processLines(line);
+        }
+
+        // Answers the complete lines in the input buffer, stopping early if
+        // a response cannot be written straight away.
+        void processLines(byte[] line) throws IOException {
+            in.flip();
+            int start = in.position();
+            for (int i = start; i < in.limit() && key.isValid(); i++) {
+                if (in.get(i) == '\n') {
+                    int length = i - start;
+                    in.position(start);
+                    in.get(line, 0, length);
+                    in.get(); // Skip the '\n'.
+                    if (length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    String inputLine =
+                        new String(line, 0, length, StandardCharsets.UTF_8);
+                    start = i + 1;
+                    respond(kkp.processInput(inputLine));
+                    if (pending != null) {
+                        // Back-pressure: read no more until the client has
+                        // taken this response.
+                        break;
+                    }
+                }
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining() && pending == null && key.isValid()) {
+                // No end of line in MAX_LINE bytes.
+                close();
+            }
+        }
+
+        void respond(String outputLine) throws IOException {
+            byte[] text = outputLine.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = ByteBuffer.allocate(text.length
+                                                 + LINE_SEPARATOR.length);
+            out.put(text).put(LINE_SEPARATOR).flip();
+            closing = outputLine.equals("Bye.");
+            pending = out;
+            flush();
+        }
+
+        // Writes as much pending output as the socket accepts, and selects
+        // for writing or for reading depending on whether any is left.
+        void flush() throws IOException {
+            channel.write(pending);
+            if (pending.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            pending = null;
+            if (closing) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 1995, 2013, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * KKServerStats counts the connections accepted and the Knock Knock sessions
+ * served by a server, and how long sessions and single responses take. All
+ * methods may be called from any thread.
+ */
+public class KKServerStats {
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder sessionNanos = new LongAdder();
+    private final AtomicLong maxSessionNanos = new AtomicLong();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder responseNanos = new LongAdder();
+    private final AtomicLong maxResponseNanos = new AtomicLong();
+
+    // Values at the previous report, to compute rates between reports.
+    private long lastReportNanos = startNanos;
+    private long lastAccepted;
+
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    public void sessionStarted() {
+        active.incrementAndGet();
+    }
+
+    public void sessionEnded(long nanos) {
+        active.decrementAndGet();
+        completed.increment();
+        sessionNanos.add(nanos);
+        updateMax(maxSessionNanos, nanos);
+    }
+
+    public void responseSent(long nanos) {
+        responses.increment();
+        responseNanos.add(nanos);
+        updateMax(maxResponseNanos, nanos);
+    }
+
+    public int activeSessions() {
+        return active.get();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())
+                && !max.compareAndSet(current, value))
+            ;
+    }
+
+    /**
+     * Returns a one-line summary. The accept rate is measured since the
+     * previous call.
+     */
+    public synchronized String report() {
+        long now = System.nanoTime();
+        long acceptedNow = accepted.sum();
+        double acceptRate = (acceptedNow - lastAccepted) * 1e9
+                / Math.max(now - lastReportNanos, 1);
+        lastReportNanos = now;
+        lastAccepted = acceptedNow;
+
+        long done = completed.sum();
+        long sent = responses.sum();
+        return String.format("active %d, accepted %d (%.1f/s), completed %d,"
+                + " session avg %.1f ms max %.1f ms,"
+                + " response avg %.3f ms max %.3f ms",
+                active.get(), acceptedNow, acceptRate, done,
+                done == 0 ? 0.0 : sessionNanos.sum() / 1e6 / done,
+                maxSessionNanos.get() / 1e6,
+                sent == 0 ? 0.0 : responseNanos.sum() / 1e6 / sent,
+                maxResponseNanos.get() / 1e6);
+    }
+}
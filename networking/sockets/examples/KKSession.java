@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 1995, 2013, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle or the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */ 
+
+import java.net.*;
+import java.io.*;
+
+/**
+ * KKSession serves one Knock Knock conversation over a socket. Unlike
+ * KKMultiServerThread it is a plain Runnable, so it can be run by any
+ * executor, and it records its timings in a KKServerStats.
+ */
+public class KKSession implements Runnable {
+    private Socket socket = null;
+    private KKServerStats stats;
+
+    public KKSession(Socket socket, KKServerStats stats) {
+        this.socket = socket;
+        this.stats = stats;
+    }
+
+    public void run() {
+        long sessionStart = System.nanoTime();
+        stats.sessionStarted();
+        try (
+            Socket s = socket;
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(
+                    s.getInputStream()));
+        ) {
+            String inputLine, outputLine;
+            KnockKnockProtocol kkp = new KnockKnockProtocol();
+            outputLine = kkp.processInput(null);
+            out.println(outputLine);
+
+            while ((inputLine = in.readLine()) != null) {
+                long responseStart = System.nanoTime();
+                outputLine = kkp.processInput(inputLine);
+                out.println(outputLine);
+                stats.responseSent(System.nanoTime() - responseStart);
+                if (outputLine.equals("Bye."))
+                    break;
+            }
+        } catch (SocketException e) {
+            // The client went away, or the server closed the socket while
+            // shutting down.
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            stats.sessionEnded(System.nanoTime() - sessionStart);
+        }
+    }
+}